@@ -162,7 +162,7 @@ public class HomeActivity extends BaseActivity implements CustomTitleView.Listen
         if (isLoading()) return;
         WallConfig.get().init();
         LiveConfig.get().init().load();
-        VodConfig.get().init().load(getCallback());
+        VodConfig.get().init().load(getCallback(), true);
         setLoading(true);
     }
 
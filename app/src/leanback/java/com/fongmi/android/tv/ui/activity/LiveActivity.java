@@ -217,6 +217,7 @@ public class LiveActivity extends BaseActivity implements GroupPresenter.OnClick
         mViewModel.url.observeForever(mObserveUrl);
         mViewModel.xml.observe(this, this::setEpg);
         mViewModel.epg.observeForever(mObserveEpg);
+        mViewModel.part.observe(this, this::setPart);
         mViewModel.live.observe(this, live -> {
             mViewModel.getXml(live);
             hideProgress();
@@ -253,6 +254,14 @@ public class LiveActivity extends BaseActivity implements GroupPresenter.OnClick
         showProgress();
     }
 
+    private void setPart(Live live) {
+        List<Group> items = new ArrayList<>();
+        for (Group group : live.getGroups()) if (!group.isHidden()) items.add(group);
+        mGroupAdapter.setItems(items, null);
+        hideProgress();
+        setWidth(live);
+    }
+
     private void setGroup(Live live) {
         List<Group> items = new ArrayList<>();
         for (Group group : live.getGroups()) (group.isHidden() ? mHides : items).add(group);
@@ -4,12 +4,10 @@ import android.util.Base64;
 
 import com.fongmi.android.tv.utils.UrlUtil;
 import com.github.catvod.net.OkHttp;
-import com.github.catvod.utils.Json;
 import com.github.catvod.utils.Util;
 
+import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.crypto.Cipher;
 import javax.crypto.spec.IvParameterSpec;
@@ -20,8 +18,6 @@ import okhttp3.Response;
 
 public class Decoder {
 
-    private static final Pattern JS_URI = Pattern.compile("\"(\\.|\\.\\.)/(.?|.+?)\\.js\\?(.?|.+?)\"");
-
     public static String getJson(String url, String tag) throws Exception {
         try (Response res = OkHttp.newCall(url, tag).execute()) {
             HttpUrl httpUrl = res.request().url();
@@ -33,51 +29,116 @@ public class Decoder {
 
     private static String verify(String url, String data) throws Exception {
         if (data.isEmpty()) throw new Exception();
-        if (Json.isObj(data)) return fix(url, data);
-        if (data.contains("**")) data = base64(data);
+        if (isObj(data)) return fix(url, data);
+        int index = extract(data);
+        if (index != -1) data = base64(data, index);
         if (data.startsWith("2423")) data = cbc(data);
         return fix(url, data);
     }
 
+    /**
+     * Resolves "./" and "../" against the config url in one pass. Quoted script paths ("./x.js?y") only get
+     * their leading reference resolved, the rest of the string is kept as is.
+     */
     private static String fix(String url, String data) {
-        Matcher matcher = JS_URI.matcher(data);
-        while (matcher.find()) data = replace(url, data, matcher.group());
-        if (data.contains("../")) data = data.replace("../", UrlUtil.resolve(url, "../"));
-        if (data.contains("./")) data = data.replace("./", UrlUtil.resolve(url, "./"));
-        if (data.contains("__JS1__")) data = data.replace("__JS1__", "./");
-        if (data.contains("__JS2__")) data = data.replace("__JS2__", "../");
-        return data;
+        String one = UrlUtil.resolve(url, "./");
+        String two = UrlUtil.resolve(url, "../");
+        StringBuilder sb = new StringBuilder(data.length() + 1024);
+        for (int i = 0, end; i < data.length(); ) {
+            char c = data.charAt(i);
+            if (c == '"' && (end = script(data, i)) != -1) {
+                while (i < end) {
+                    if (data.startsWith("\"./", i)) {
+                        sb.append('"').append(one);
+                        i += 3;
+                    } else if (data.startsWith("\"../", i)) {
+                        sb.append('"').append(two);
+                        i += 4;
+                    } else {
+                        sb.append(data.charAt(i++));
+                    }
+                }
+            } else if (c == '.' && data.startsWith("../", i)) {
+                sb.append(two);
+                i += 3;
+            } else if (c == '.' && data.startsWith("./", i)) {
+                sb.append(one);
+                i += 2;
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+        return sb.toString();
     }
 
-    private static String replace(String url, String data, String ext) {
-        String t = ext.replace("\"./", "\"" + UrlUtil.resolve(url, "./"));
-        t = t.replace("\"../", "\"" + UrlUtil.resolve(url, "../"));
-        t = t.replace("./", "__JS1__").replace("../", "__JS2__");
-        return data.replace(ext, t);
+    private static int script(String data, int index) {
+        int i = data.startsWith("\"./", index) ? index + 3 : data.startsWith("\"../", index) ? index + 4 : -1;
+        if (i == -1) return -1;
+        for (; i < data.length() && !isLineEnd(data.charAt(i)); i++) if (data.startsWith(".js?", i)) break;
+        if (i == data.length() || isLineEnd(data.charAt(i))) return -1;
+        for (i += 4; i < data.length() && !isLineEnd(data.charAt(i)); i++) if (data.charAt(i) == '"') return i + 1;
+        return -1;
     }
 
     private static String cbc(String data) throws Exception {
-        String decode = new String(Util.hex2byte(data)).toLowerCase();
-        String key = padEnd(decode.substring(decode.indexOf("$#") + 2, decode.indexOf("#$")));
-        String iv = padEnd(decode.substring(decode.length() - 13));
+        int split = data.indexOf("2324") + 4;
+        String head = new String(Util.hex2byte(data.substring(0, split))).toLowerCase();
+        String tail = new String(Util.hex2byte(data.substring(data.length() - 26))).toLowerCase();
+        String key = padEnd(head.substring(head.indexOf("$#") + 2, head.indexOf("#$")));
+        String iv = padEnd(tail);
         SecretKeySpec keySpec = new SecretKeySpec(key.getBytes(), "AES");
         IvParameterSpec ivSpec = new IvParameterSpec(iv.getBytes());
         Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
         cipher.init(Cipher.DECRYPT_MODE, keySpec, ivSpec);
-        data = data.substring(data.indexOf("2324") + 4, data.length() - 26);
-        byte[] decryptData = cipher.doFinal(Util.hex2byte(data));
-        return new String(decryptData, StandardCharsets.UTF_8);
+        int end = data.length() - 26;
+        byte[] buffer = new byte[8192];
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(end - split, 0) / 2);
+        for (int i = split, size; (size = Math.min(buffer.length, (end - i) / 2)) > 0; ) {
+            for (int j = 0; j < size; j++, i += 2) buffer[j] = (byte) (hex(data.charAt(i)) << 4 | hex(data.charAt(i + 1)));
+            byte[] chunk = cipher.update(buffer, 0, size);
+            if (chunk != null) out.write(chunk);
+        }
+        out.write(cipher.doFinal());
+        return out.toString(StandardCharsets.UTF_8.name());
+    }
+
+    private static String base64(String data, int index) {
+        byte[] bytes = new byte[data.length() - index];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = (byte) data.charAt(index + i);
+        return new String(Base64.decode(bytes, Base64.DEFAULT));
+    }
+
+    private static int extract(String data) {
+        for (int i = data.indexOf("**"); i != -1; i = data.indexOf("**", i + 1)) {
+            int count = 0;
+            while (count < 8 && i - count > 0 && isAlnum(data.charAt(i - count - 1))) count++;
+            if (count == 8) return i + 2;
+        }
+        return -1;
+    }
+
+    private static boolean isObj(String data) {
+        for (int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            if (Character.isWhitespace(c)) continue;
+            return c == '{' || data.startsWith("//", i) || data.startsWith("/*", i);
+        }
+        return false;
+    }
+
+    private static boolean isAlnum(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
     }
 
-    private static String base64(String data) {
-        String extract = extract(data);
-        if (extract.isEmpty()) return data;
-        return new String(Base64.decode(extract, Base64.DEFAULT));
+    private static boolean isLineEnd(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
     }
 
-    private static String extract(String data) {
-        Matcher matcher = Pattern.compile("[A-Za-z0-9]{8}\\*\\*").matcher(data);
-        return matcher.find() ? data.substring(data.indexOf(matcher.group()) + 10) : "";
+    private static int hex(char c) {
+        int digit = Character.digit(c, 16);
+        if (digit == -1) throw new NumberFormatException(String.valueOf(c));
+        return digit;
     }
 
     private static String padEnd(String key) {
@@ -1,6 +1,7 @@
 package com.fongmi.android.tv.api;
 
 import android.net.Uri;
+import android.util.Xml;
 
 import com.fongmi.android.tv.bean.Channel;
 import com.fongmi.android.tv.bean.Epg;
@@ -8,122 +9,376 @@ import com.fongmi.android.tv.bean.EpgData;
 import com.fongmi.android.tv.bean.Group;
 import com.fongmi.android.tv.bean.Live;
 import com.fongmi.android.tv.bean.Tv;
-import com.fongmi.android.tv.utils.Download;
-import com.fongmi.android.tv.utils.FileUtil;
+import com.fongmi.android.tv.utils.FlowLogger;
+import com.fongmi.android.tv.utils.TimeCodec;
+import com.github.catvod.net.OkHttp;
 import com.github.catvod.utils.Path;
 import com.github.catvod.utils.Trans;
 
 import org.simpleframework.xml.core.Persister;
+import org.xmlpull.v1.XmlPullParser;
 
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import okhttp3.Response;
 
 public class EpgParser {
 
-    private static final SimpleDateFormat formatTime = new SimpleDateFormat("HH:mm", Locale.getDefault());
-    private static final SimpleDateFormat formatDate = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault());
-    private static final SimpleDateFormat formatFull = new SimpleDateFormat("yyyyMMddHHmmss Z", Locale.getDefault());
+    private static final int BUFFER = 64 * 1024;
+    private static final int PARALLEL = 3;
+
+    public static boolean start(Live live) throws Exception {
+        List<String> urls = live.getEpgXml();
+        if (urls.isEmpty()) return false;
+        Index index = new Index(live);
+        EpgStore store = EpgStore.load(live, index.ids);
+        apply(live, store);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(urls.size(), PARALLEL));
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (String url : urls) futures.add(executor.submit(() -> read(store, index, url)));
+            boolean success = false;
+            boolean changed = false;
+            for (int i = 0; i < urls.size(); i++) {
+                try {
+                    Result result = futures.get(i).get();
+                    if (result != null) store.merge(urls.get(i), result.modified, result.epgMap, result.srcMap);
+                    changed |= result != null;
+                    success = true;
+                } catch (ExecutionException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (changed) store.save();
+            if (changed) apply(live, store);
+            report(live, store);
+            return success;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-    public static boolean start(Live live, String url) throws Exception {
+    public static void refresh(Channel channel) {
+        EpgStore store = EpgStore.get();
+        String today = TimeCodec.formatDate(System.currentTimeMillis(), TimeZone.getDefault());
+        if (store == null || channel.getData().equal(today) || !store.contains(channel.getTvgId())) return;
+        channel.setData(getEpg(store, channel.getTvgId(), today));
+    }
+
+    private static Result read(EpgStore store, Index index, String url) throws Exception {
         File file = Path.epg(Uri.parse(url).getLastPathSegment());
-        if (shouldDownload(file)) Download.create(url, file).start();
-        if (file.getName().endsWith(".gz")) readGzip(live, file);
-        else readXml(live, file);
-        return true;
+        if (url.startsWith("file") || !shouldDownload(file)) return store.isFresh(url, file) ? null : readFile(index, file);
+        try {
+            return download(index, url, file);
+        } catch (Exception e) {
+            if (!file.exists()) throw e;
+            return store.isFresh(url, file) ? null : readFile(index, file);
+        }
     }
 
     private static boolean shouldDownload(File file) {
-        return !file.exists() || !isToday(file.lastModified()) || System.currentTimeMillis() - file.lastModified() > TimeUnit.HOURS.toMillis(6);
-    }
-
-    private static boolean isToday(long millis) {
-        Calendar calendar = Calendar.getInstance();
-        calendar.setTimeInMillis(millis);
-        return calendar.get(Calendar.DAY_OF_MONTH) == Calendar.getInstance().get(Calendar.DAY_OF_MONTH);
-    }
-
-    private static void readGzip(Live live, File file) throws Exception {
-        File xml = Path.epg(file.getName().replace(".gz", ""));
-        if (!xml.exists()) FileUtil.gzipDecompress(file, xml);
-        readXml(live, xml);
-    }
-
-    private static void readXml(Live live, File file) throws Exception {
-        Set<String> exist = new HashSet<>();
-        Map<String, Epg> epgMap = new HashMap<>();
-        Map<String, String> srcMap = new HashMap<>();
-        Map<String, Tv.Channel> mapping = new HashMap<>();
-        String today = formatDate.format(new Date());
-        Tv tv = new Persister().read(Tv.class, Path.read(file), false);
-        for (Group group : live.getGroups()) for (Channel channel : group.getChannel()) exist.add(channel.getTvgId());
-        for (Tv.Channel channel : tv.getChannel()) mapping.put(channel.getId(), channel);
-        for (Tv.Programme programme : tv.getProgramme()) {
-            String key = programme.getChannel();
-            Tv.Channel channel = mapping.get(key);
-            if (!exist.contains(key)) key = find(exist, channel);
-            Date startDate = parse(formatFull, programme.getStart());
-            Date endDate = parse(formatFull, programme.getStop());
-            if (!exist.contains(key) || !isToday(startDate.getTime())) continue;
-            if (!epgMap.containsKey(key)) epgMap.put(key, Epg.create(key, today));
-            epgMap.get(key).getList().add(getEpgData(startDate, endDate, programme));
-            if (channel != null && channel.hasSrc()) srcMap.put(key, channel.getSrc());
+        return !file.exists() || System.currentTimeMillis() - file.lastModified() > TimeUnit.HOURS.toMillis(6);
+    }
+
+    private static long getToday() {
+        return TimeCodec.startOfDay(System.currentTimeMillis(), TimeZone.getDefault());
+    }
+
+    private static Result readFile(Index index, File file) throws Exception {
+        try (InputStream is = open(new FileInputStream(file))) {
+            Result result = readXml(index, is);
+            result.modified = file.lastModified();
+            return result;
+        }
+    }
+
+    private static Result download(Index index, String url, File file) throws Exception {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (Response res = OkHttp.newCall(url, url).execute()) {
+            if (!res.isSuccessful()) throw new IOException("HTTP " + res.code() + " " + url);
+            try (Tee tee = new Tee(res.body().byteStream(), new FileOutputStream(Path.create(temp)))) {
+                Result result = readXml(index, open(tee));
+                tee.drain();
+                tee.close();
+                if (!temp.renameTo(file)) Path.copy(temp, file);
+                result.modified = file.lastModified();
+                return result;
+            }
+        } finally {
+            Path.clear(temp);
+        }
+    }
+
+    private static InputStream open(InputStream is) throws IOException {
+        BufferedInputStream input = new BufferedInputStream(is, BUFFER);
+        input.mark(2);
+        int magic = input.read() | (input.read() << 8);
+        input.reset();
+        return magic == GZIPInputStream.GZIP_MAGIC ? new GZIPInputStream(input, BUFFER) : input;
+    }
+
+    private static void apply(Live live, EpgStore store) {
+        String today = TimeCodec.formatDate(System.currentTimeMillis(), TimeZone.getDefault());
+        for (Group group : live.getGroups()) {
+            for (Channel channel : group.getChannel()) {
+                if (!store.contains(channel.getTvgId())) continue;
+                String logo = store.getLogo(channel.getTvgId());
+                if (!logo.isEmpty()) channel.setLogo(logo);
+                channel.setData(getEpg(store, channel.getTvgId(), today));
+            }
         }
+    }
+
+    private static void report(Live live, EpgStore store) {
+        int total = 0;
+        List<String> unmatched = new ArrayList<>();
         for (Group group : live.getGroups()) {
             for (Channel channel : group.getChannel()) {
-                if (epgMap.containsKey(channel.getTvgId())) channel.setData(epgMap.get(channel.getTvgId()));
-                if (srcMap.containsKey(channel.getTvgId())) channel.setLogo(srcMap.get(channel.getTvgId()));
+                total++;
+                if (!store.contains(channel.getTvgId())) unmatched.add(channel.getName());
             }
         }
+        FlowLogger.logLiveEpgMatch(FlowLogger.generateFlowId(), live.getName(), total, total - unmatched.size(), unmatched);
+    }
+
+    private static Epg getEpg(EpgStore store, String key, String today) {
+        long from = getToday();
+        Epg epg = Epg.create(key, today);
+        epg.getList().addAll(store.range(key, from, from + TimeUnit.DAYS.toMillis(1)));
+        return epg;
+    }
+
+    private static Result readXml(Index index, InputStream is) throws Exception {
+        Result result = new Result();
+        Map<String, Ref> mapping = new HashMap<>();
+        long since = EpgStore.since();
+        TimeZone zone = TimeZone.getDefault();
+        XmlPullParser parser = Xml.newPullParser();
+        parser.setInput(is, null);
+        for (int event = parser.getEventType(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+            if (Thread.interrupted()) throw new InterruptedException();
+            if (event != XmlPullParser.START_TAG || parser.getDepth() != 2) continue;
+            if ("channel".equals(parser.getName())) readChannel(parser, index, mapping);
+            else if ("programme".equals(parser.getName())) readProgramme(parser, index, mapping, result, since, zone);
+        }
+        return result;
+    }
+
+    private static void readChannel(XmlPullParser parser, Index index, Map<String, Ref> mapping) throws Exception {
+        String id = attr(parser, "id");
+        String key = index.find(id);
+        String src = "";
+        int depth = parser.getDepth();
+        for (int event = parser.next(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+            if (event == XmlPullParser.END_TAG && parser.getDepth() == depth) break;
+            if (event != XmlPullParser.START_TAG) continue;
+            if ("icon".equals(parser.getName())) src = attr(parser, "src");
+            else if ("display-name".equals(parser.getName()) && key == null) key = index.find(parser.nextText());
+        }
+        mapping.put(id, key == null ? Ref.MISS : new Ref(key, src));
+    }
+
+    private static void readProgramme(XmlPullParser parser, Index index, Map<String, Ref> mapping, Result result, long since, TimeZone zone) throws Exception {
+        String id = attr(parser, "channel");
+        Ref channel = mapping.get(id);
+        if (channel == null) mapping.put(id, channel = Ref.of(index.find(id)));
+        String key = channel.key;
+        if (key == null) {
+            skip(parser);
+            return;
+        }
+        long end = TimeCodec.parse(attr(parser, "stop"), zone);
+        if (end < since) {
+            skip(parser);
+            return;
+        }
+        long start = TimeCodec.parse(attr(parser, "start"), zone);
+        if (!result.epgMap.containsKey(key)) result.epgMap.put(key, new ArrayList<>());
+        EpgData item = new EpgData();
+        item.setStartTime(start);
+        item.setEndTime(end);
+        item.setTitle(readTitle(parser));
+        result.epgMap.get(key).add(item);
+        if (!channel.src.isEmpty()) result.srcMap.put(key, channel.src);
+    }
+
+    private static String readTitle(XmlPullParser parser) throws Exception {
+        String title = null;
+        int depth = parser.getDepth();
+        for (int event = parser.next(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+            if (event == XmlPullParser.END_TAG && parser.getDepth() == depth) break;
+            if (event == XmlPullParser.START_TAG && title == null && "title".equals(parser.getName())) title = parser.nextText();
+        }
+        return title == null ? "" : title;
+    }
+
+    private static String attr(XmlPullParser parser, String name) {
+        String value = parser.getAttributeValue(null, name);
+        return value == null ? "" : value;
     }
 
-    private static String find(Set<String> exist, Tv.Channel channel) {
-        if (channel == null) return "";
-        for (Tv.DisplayName name : channel.getDisplayName()) if (exist.contains(name.getText())) return name.getText();
-        return "";
+    private static void skip(XmlPullParser parser) throws Exception {
+        int depth = parser.getDepth();
+        for (int event = parser.next(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+            if (event == XmlPullParser.END_TAG && parser.getDepth() == depth) break;
+        }
     }
 
     public static Epg getEpg(String xml, String key) throws Exception {
         Tv tv = new Persister().read(Tv.class, xml, false);
-        Epg epg = Epg.create(key, formatDate.format(parse(formatFull, tv.getDate())));
+        Epg epg = Epg.create(key, TimeCodec.formatDate(TimeCodec.parse(tv.getDate(), TimeZone.getDefault()), TimeZone.getDefault()));
         for (Tv.Programme programme : tv.getProgramme()) epg.getList().add(getEpgData(programme));
         return epg;
     }
 
     private static EpgData getEpgData(Tv.Programme programme) {
-        Date startDate = parse(formatFull, programme.getStart());
-        Date endDate = parse(formatFull, programme.getStop());
-        return getEpgData(startDate, endDate, programme);
+        long start = TimeCodec.parse(programme.getStart(), TimeZone.getDefault());
+        long end = TimeCodec.parse(programme.getStop(), TimeZone.getDefault());
+        return getEpgData(start, end, programme.getTitle());
     }
 
-    private static EpgData getEpgData(Date startDate, Date endDate, Tv.Programme programme) {
-        try {
-            EpgData epgData = new EpgData();
-            epgData.setTitle(Trans.s2t(programme.getTitle()));
-            epgData.setStart(formatTime.format(startDate));
-            epgData.setEnd(formatTime.format(endDate));
-            epgData.setStartTime(startDate.getTime());
-            epgData.setEndTime(endDate.getTime());
-            return epgData;
-        } catch (Exception e) {
-            return new EpgData();
+    static EpgData getEpgData(long start, long end, String title) {
+        TimeZone zone = TimeZone.getDefault();
+        EpgData epgData = new EpgData();
+        epgData.setTitle(Trans.s2t(title));
+        epgData.setStart(TimeCodec.formatTime(start, zone));
+        epgData.setEnd(TimeCodec.formatTime(end, zone));
+        epgData.setStartTime(start);
+        epgData.setEndTime(end);
+        return epgData;
+    }
+
+    private static class Result {
+
+        private final Map<String, List<EpgData>> epgMap = new HashMap<>();
+        private final Map<String, String> srcMap = new HashMap<>();
+        private long modified;
+    }
+
+    private static class Tee extends FilterInputStream {
+
+        private final OutputStream out;
+
+        private Tee(InputStream in, OutputStream out) {
+            super(in);
+            this.out = out;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) out.write(b);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) out.write(b, off, read);
+            return read;
+        }
+
+        private void drain() throws IOException {
+            byte[] buffer = new byte[BUFFER];
+            while (read(buffer, 0, buffer.length) != -1) ;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                out.close();
+            }
         }
     }
 
-    private static Date parse(SimpleDateFormat format, String source) {
-        try {
-            return format.parse(source);
-        } catch (Exception e) {
-            Date date = new Date();
-            date.setTime(0);
-            return date;
+    private static class Index {
+
+        private static final String[] SUFFIX = {"uhd", "fhd", "hd", "超高清", "高清", "超清", "标清"};
+
+        private final Set<String> ids;
+        private final Map<String, String> names;
+
+        private Index(Live live) {
+            this.ids = new HashSet<>();
+            this.names = new HashMap<>();
+            for (Group group : live.getGroups()) for (Channel channel : group.getChannel()) ids.add(channel.getTvgId());
+            for (Group group : live.getGroups()) {
+                for (Channel channel : group.getChannel()) {
+                    put(channel.getTvgId(), channel.getTvgId());
+                    put(channel.getTvgName(), channel.getTvgId());
+                    put(channel.getName(), channel.getTvgId());
+                }
+            }
+        }
+
+        private void put(String name, String key) {
+            String normalized = normalize(name);
+            if (!normalized.isEmpty() && !names.containsKey(normalized)) names.put(normalized, key);
+        }
+
+        private String find(String name) {
+            if (ids.contains(name)) return name;
+            return names.get(normalize(name));
+        }
+
+        private static String normalize(String name) {
+            if (name == null || name.isEmpty()) return "";
+            String text = Trans.t2s(false, name).toLowerCase(Locale.ROOT);
+            StringBuilder sb = new StringBuilder(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (!Character.isWhitespace(c) && c != '-' && c != '_' && c != '·' && c != '　') sb.append(c);
+            }
+            for (boolean strip = true; strip; ) {
+                strip = false;
+                for (String suffix : SUFFIX) {
+                    if (sb.length() > suffix.length() && sb.lastIndexOf(suffix) == sb.length() - suffix.length()) {
+                        sb.setLength(sb.length() - suffix.length());
+                        strip = true;
+                    }
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    private static class Ref {
+
+        private static final Ref MISS = new Ref(null, "");
+
+        private final String key;
+        private final String src;
+
+        private Ref(String key, String src) {
+            this.key = key;
+            this.src = src;
+        }
+
+        private static Ref of(String key) {
+            return key == null ? MISS : new Ref(key, "");
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,228 @@
+package com.fongmi.android.tv.api;
+
+import com.fongmi.android.tv.bean.EpgData;
+import com.fongmi.android.tv.bean.Live;
+import com.github.catvod.utils.Path;
+import com.github.catvod.utils.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Multi-day programme index for the XMLTV sources of a live, stored under Path.epg.
+ * Programmes are kept per channel sorted by start time, so day ranges are binary searches,
+ * and a parse of one source only replaces the time span it covers.
+ */
+public class EpgStore {
+
+    private static final int MAGIC = 0x45504731;
+    private static final int VERSION = 2;
+    private static final long KEEP = TimeUnit.DAYS.toMillis(3);
+
+    private static volatile EpgStore current;
+
+    private final Map<String, Guide> guides;
+    private final Map<String, Long> sources;
+    private final File file;
+    private final int exist;
+
+    static long since() {
+        return System.currentTimeMillis() - KEEP;
+    }
+
+    public static EpgStore get() {
+        return current;
+    }
+
+    public static EpgStore load(Live live, Set<String> exist) {
+        EpgStore store = new EpgStore(Path.epg(Util.md5(live.getEpg()).concat(".idx")), new TreeSet<>(exist).hashCode());
+        if (store.file.exists()) store.read();
+        return current = store;
+    }
+
+    private EpgStore(File file, int exist) {
+        this.guides = new ConcurrentHashMap<>();
+        this.sources = new HashMap<>();
+        this.exist = exist;
+        this.file = file;
+    }
+
+    public synchronized boolean isFresh(String url, File source) {
+        Long modified = sources.get(url);
+        return modified != null && source.exists() && modified == source.lastModified();
+    }
+
+    public boolean contains(String key) {
+        return guides.containsKey(key);
+    }
+
+    public String getLogo(String key) {
+        Guide guide = guides.get(key);
+        return guide == null ? "" : guide.logo;
+    }
+
+    public List<EpgData> range(String key, long from, long to) {
+        Guide guide = guides.get(key);
+        if (guide == null) return Collections.emptyList();
+        List<EpgData> items = new ArrayList<>();
+        int i = guide.floor(from);
+        if (i < 0 || guide.end[i] <= from) i++;
+        for (; i < guide.size() && guide.start[i] < to; i++) items.add(guide.get(i));
+        return items;
+    }
+
+    public synchronized void merge(String url, long modified, Map<String, List<EpgData>> epgMap, Map<String, String> srcMap) {
+        long since = since();
+        for (Map.Entry<String, List<EpgData>> entry : epgMap.entrySet()) {
+            String key = entry.getKey();
+            String logo = srcMap.containsKey(key) ? srcMap.get(key) : getLogo(key);
+            guides.put(key, Guide.merge(guides.get(key), entry.getValue(), logo, since));
+        }
+        sources.put(url, modified);
+    }
+
+    public synchronized void save() {
+        long since = since();
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(temp), 8192)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(exist);
+            out.writeInt(sources.size());
+            for (Map.Entry<String, Long> entry : sources.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+            out.writeInt(guides.size());
+            for (Map.Entry<String, Guide> entry : guides.entrySet()) {
+                out.writeUTF(entry.getKey());
+                entry.getValue().write(out, since);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            Path.clear(temp);
+            return;
+        }
+        if (!temp.renameTo(file)) Path.clear(temp);
+    }
+
+    private void read() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), 8192)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return;
+            boolean same = in.readInt() == exist;
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                String url = in.readUTF();
+                long modified = in.readLong();
+                if (same) sources.put(url, modified);
+            }
+            size = in.readInt();
+            for (int i = 0; i < size; i++) guides.put(in.readUTF(), Guide.read(in));
+        } catch (Exception e) {
+            e.printStackTrace();
+            guides.clear();
+            sources.clear();
+            Path.clear(file);
+        }
+    }
+
+    private static class Guide {
+
+        private final String logo;
+        private final long[] start;
+        private final long[] end;
+        private final String[] title;
+
+        private Guide(String logo, int size) {
+            this.logo = logo;
+            this.start = new long[size];
+            this.end = new long[size];
+            this.title = new String[size];
+        }
+
+        private static Guide merge(Guide old, List<EpgData> items, String logo, long since) {
+            Collections.sort(items, (o1, o2) -> Long.compare(o1.getStartTime(), o2.getStartTime()));
+            long from = items.isEmpty() ? Long.MAX_VALUE : items.get(0).getStartTime();
+            long to = Long.MIN_VALUE;
+            for (EpgData item : items) to = Math.max(to, item.getEndTime());
+            Guide guide = new Guide(logo, (old == null ? 0 : old.size()) + items.size());
+            int size = 0;
+            int i = 0;
+            if (old != null) for (; i < old.size() && old.start[i] < from; i++) if (old.end[i] > since) size = guide.set(size, old.start[i], Math.min(old.end[i], from), old.title[i]);
+            for (EpgData item : items) if (item.getEndTime() > since) size = guide.set(size, item.getStartTime(), item.getEndTime(), item.getTitle());
+            if (old != null) for (; i < old.size(); i++) if (old.start[i] >= to) size = guide.set(size, old.start[i], old.end[i], old.title[i]);
+            return guide.trim(size);
+        }
+
+        private static Guide read(DataInputStream in) throws IOException {
+            String logo = in.readUTF();
+            Guide guide = new Guide(logo, in.readInt());
+            for (int i = 0; i < guide.size(); i++) {
+                guide.start[i] = in.readLong();
+                guide.end[i] = in.readLong();
+                guide.title[i] = in.readUTF();
+            }
+            return guide;
+        }
+
+        private void write(DataOutputStream out, long since) throws IOException {
+            int from = 0;
+            while (from < size() && end[from] <= since) from++;
+            out.writeUTF(logo);
+            out.writeInt(size() - from);
+            for (int i = from; i < size(); i++) {
+                out.writeLong(start[i]);
+                out.writeLong(end[i]);
+                out.writeUTF(title[i]);
+            }
+        }
+
+        private int set(int index, long start, long end, String title) {
+            if (index > 0 && this.start[index - 1] == start) index--;
+            this.start[index] = start;
+            this.end[index] = end;
+            this.title[index] = title;
+            return index + 1;
+        }
+
+        private Guide trim(int size) {
+            if (size == size()) return this;
+            Guide guide = new Guide(logo, size);
+            System.arraycopy(start, 0, guide.start, 0, size);
+            System.arraycopy(end, 0, guide.end, 0, size);
+            System.arraycopy(title, 0, guide.title, 0, size);
+            return guide;
+        }
+
+        private int size() {
+            return start.length;
+        }
+
+        private int floor(long time) {
+            int index = Arrays.binarySearch(start, time);
+            return index >= 0 ? index : -index - 2;
+        }
+
+        private EpgData get(int index) {
+            return EpgParser.getEpgData(start[index], end[index], title[index]);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.fongmi.android.tv.api;
+
+import com.fongmi.android.tv.App;
+import com.fongmi.android.tv.bean.Catchup;
+import com.fongmi.android.tv.bean.Channel;
+import com.fongmi.android.tv.bean.Drm;
+import com.fongmi.android.tv.bean.Group;
+import com.fongmi.android.tv.bean.Live;
+import com.github.catvod.utils.Json;
+import com.github.catvod.utils.Path;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Binary snapshot of a parsed live source, stored under Path.cache and keyed by the source.
+ * Channels are written as parsed, before numbering and the live-level defaults are applied,
+ * so a snapshot stays valid when only the live definition changes.
+ */
+public class LiveCache {
+
+    private static final int MAGIC = 0x4C495645;
+    private static final int VERSION = 1;
+
+    private static File file(Live live) {
+        return Path.live(live.getApi() + live.getExt() + live.getUrl() + live.isPass());
+    }
+
+    public static String hash(Live live) {
+        File file = file(live);
+        if (!file.exists()) return null;
+        try (DataInputStream in = open(file)) {
+            return header(in) ? in.readUTF() : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public static String read(Live live) {
+        File file = file(live);
+        if (!file.exists()) return null;
+        try (DataInputStream in = open(file)) {
+            if (!header(in)) return null;
+            String hash = in.readUTF();
+            String epg = readString(in);
+            int size = in.readInt();
+            List<Group> groups = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) groups.add(readGroup(in));
+            if (live.getEpg().isEmpty()) live.setEpg(epg);
+            live.getGroups().addAll(groups);
+            return hash;
+        } catch (Exception e) {
+            e.printStackTrace();
+            Path.clear(file);
+            return null;
+        }
+    }
+
+    public static void write(Live live, String hash) {
+        File file = file(live);
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(temp), 8192)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(hash);
+            writeString(out, live.getEpg());
+            out.writeInt(live.getGroups().size());
+            for (Group group : live.getGroups()) writeGroup(out, group);
+        } catch (Exception e) {
+            e.printStackTrace();
+            Path.clear(temp);
+            return;
+        }
+        if (!temp.renameTo(file)) Path.clear(temp);
+    }
+
+    private static DataInputStream open(File file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), 8192)));
+    }
+
+    private static boolean header(DataInputStream in) throws IOException {
+        return in.readInt() == MAGIC && in.readInt() == VERSION;
+    }
+
+    private static void writeGroup(DataOutputStream out, Group group) throws IOException {
+        writeString(out, group.getName());
+        writeString(out, group.getPass());
+        out.writeInt(group.getPosition());
+        out.writeInt(group.getChannel().size());
+        for (Channel channel : group.getChannel()) writeChannel(out, channel);
+    }
+
+    private static Group readGroup(DataInputStream in) throws IOException {
+        String name = readString(in);
+        String pass = readString(in);
+        int position = in.readInt();
+        int size = in.readInt();
+        List<Channel> channel = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) channel.add(readChannel(in));
+        Group group = Group.create(name, pass, channel);
+        group.setPosition(position);
+        return group;
+    }
+
+    private static void writeChannel(DataOutputStream out, Channel channel) throws IOException {
+        writeString(out, channel.getName());
+        writeString(out, channel.getNumber());
+        writeString(out, channel.getLogo());
+        writeString(out, channel.getEpg());
+        writeString(out, channel.getUa());
+        writeString(out, channel.getClick());
+        writeString(out, channel.getFormat());
+        writeString(out, channel.getOrigin());
+        writeString(out, channel.getReferer());
+        writeString(out, channel.getTvgId());
+        writeString(out, channel.getTvgName());
+        writeString(out, channel.getHeader() == null ? null : channel.getHeader().toString());
+        writeString(out, channel.getDrm() == null ? null : App.gson().toJson(channel.getDrm()));
+        writeString(out, App.gson().toJson(channel.getCatchup()));
+        out.writeInt(channel.getParse());
+        out.writeInt(channel.getUrls().size());
+        for (String url : channel.getUrls()) writeString(out, url);
+    }
+
+    private static Channel readChannel(DataInputStream in) throws IOException {
+        Channel channel = Channel.create(readString(in));
+        channel.setNumber(readString(in));
+        channel.setLogo(readString(in));
+        channel.setEpg(readString(in));
+        channel.setUa(readString(in));
+        channel.setClick(readString(in));
+        channel.setFormat(readString(in));
+        channel.setOrigin(readString(in));
+        channel.setReferer(readString(in));
+        channel.setTvgId(readString(in));
+        channel.setTvgName(readString(in));
+        String header = readString(in);
+        String drm = readString(in);
+        if (header != null) channel.setHeader(Json.parse(header));
+        if (drm != null) channel.setDrm(App.gson().fromJson(drm, Drm.class));
+        channel.setCatchup(App.gson().fromJson(readString(in), Catchup.class));
+        channel.setParse(in.readInt());
+        int size = in.readInt();
+        List<String> urls = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) urls.add(readString(in));
+        channel.setUrls(urls);
+        return channel;
+    }
+
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        if (text == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -12,33 +12,35 @@ import com.fongmi.android.tv.utils.FlowLogger;
 import com.fongmi.android.tv.utils.UrlUtil;
 import com.github.catvod.net.OkHttp;
 import com.github.catvod.utils.Json;
+import com.google.gson.stream.JsonReader;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.Map;
-import java.util.regex.Matcher;
+import java.util.Objects;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.HashingSource;
+import okio.Okio;
+import okio.Source;
+
 public class LiveParser {
 
     private static final Pattern M3U = Pattern.compile("^(?!.*#genre#).*#EXT(?:M3U|INF).*", Pattern.MULTILINE);
-    private static final Pattern CATCHUP_REPLACE = Pattern.compile(".*catchup-replace=\"(.?|.+?)\".*");
-    private static final Pattern CATCHUP_SOURCE = Pattern.compile(".*catchup-source=\"(.?|.+?)\".*");
-    private static final Pattern CATCHUP = Pattern.compile(".*catchup=\"(.?|.+?)\".*");
-    private static final Pattern TVG_CHNO = Pattern.compile(".*tvg-chno=\"(.?|.+?)\".*");
-    private static final Pattern TVG_LOGO = Pattern.compile(".*tvg-logo=\"(.?|.+?)\".*");
-    private static final Pattern TVG_NAME = Pattern.compile(".*tvg-name=\"(.?|.+?)\".*");
-    private static final Pattern TVG_URL = Pattern.compile(".*tvg-url=\"(.?|.+?)\".*");
-    private static final Pattern TVG_ID = Pattern.compile(".*tvg-id=\"(.?|.+?)\".*");
-    private static final Pattern URL_TVG = Pattern.compile(".*url-tvg=\"(.?|.+?)\".*");
-    private static final Pattern GROUP = Pattern.compile(".*group-title=\"(.?|.+?)\".*");
-    private static final Pattern NAME = Pattern.compile(".*,(.+?)$");
-
-    private static String extract(String line, Pattern pattern) {
-        Matcher matcher = pattern.matcher(line.trim());
-        if (matcher.matches()) return matcher.group(1).trim();
-        return "";
-    }
 
     private static String extract(String line, String... keywords) {
         String[] splits = line.split(" ");
@@ -47,10 +49,33 @@ public class LiveParser {
     }
 
     public static void start(Live live) throws Exception {
-        start(live, null);
+        start(live, null, null);
     }
 
     public static void start(Live live, String flowId) throws Exception {
+        start(live, flowId, null);
+    }
+
+    public static void start(Live live, Consumer<Live> partial) throws Exception {
+        start(live, null, partial);
+    }
+
+    public static boolean load(Live live) {
+        if (!live.getGroups().isEmpty() || LiveCache.read(live) == null) return false;
+        if (live.getGroups().isEmpty()) return false;
+        finish(live, live, null);
+        return true;
+    }
+
+    public static Live refresh(Live live) throws Exception {
+        Live item = live.copy();
+        String hash = LiveCache.hash(live);
+        start(item);
+        if (item.getGroups().isEmpty()) return null;
+        return Objects.equals(hash, LiveCache.hash(item)) ? null : item;
+    }
+
+    public static void start(Live live, String flowId, Consumer<Live> partial) throws Exception {
         if (!live.getGroups().isEmpty()) return;
 
         if (flowId != null) {
@@ -58,25 +83,30 @@ public class LiveParser {
                 String.format("开始解析直播源: %s", live.getName()));
         }
 
-        String text = getText(live);
         String format;
+        Partial progress = new Partial(partial);
 
-        if (Json.isArray(text)) {
-            format = "JSON";
-            if (flowId != null) {
-                FlowLogger.logLive(flowId, FlowLogger.LiveStage.LIVE_SOURCE_PARSE, FlowLogger.Level.INFO,
-                    String.format("检测到JSON格式直播源: %s", live.getName()));
-            }
-            json(live, text, flowId);
-        } else {
-            format = M3U.matcher(text).find() ? "M3U" : "TXT";
-            if (flowId != null) {
-                FlowLogger.logLive(flowId, FlowLogger.LiveStage.LIVE_SOURCE_PARSE, FlowLogger.Level.INFO,
-                    String.format("检测到%s格式直播源: %s", format, live.getName()));
+        try (Reader reader = getReader(live)) {
+            if (reader.isJson()) {
+                format = "JSON";
+                if (flowId != null) {
+                    FlowLogger.logLive(flowId, FlowLogger.LiveStage.LIVE_SOURCE_PARSE, FlowLogger.Level.INFO,
+                        String.format("检测到JSON格式直播源: %s", live.getName()));
+                }
+                json(live, reader, progress);
+            } else {
+                format = reader.isM3u() ? "M3U" : "TXT";
+                if (flowId != null) {
+                    FlowLogger.logLive(flowId, FlowLogger.LiveStage.LIVE_SOURCE_PARSE, FlowLogger.Level.INFO,
+                        String.format("检测到%s格式直播源: %s", format, live.getName()));
+                }
+                if (format.equals("M3U")) m3u(live, reader, progress); else txt(live, reader, progress);
             }
-            text(live, text, flowId);
+            if (reader.isDone() && !live.getGroups().isEmpty()) save(live, reader.hash());
         }
 
+        finish(live, live, flowId);
+
         if (flowId != null) {
             int groupCount = live.getGroups().size();
             int channelCount = live.getGroups().stream().mapToInt(g -> g.getChannel().size()).sum();
@@ -84,9 +114,23 @@ public class LiveParser {
         }
     }
 
-    private static String getText(Live live) throws Exception {
-        if (!live.getApi().isEmpty()) return live.spider().liveContent(live.getUrl());
-        return OkHttp.string(UrlUtil.convert(live.getUrl()), live.getHeaders());
+    private static void save(Live live, String hash) {
+        if (!hash.equals(LiveCache.hash(live))) LiveCache.write(live, hash);
+    }
+
+    private static Reader getReader(Live live) throws Exception {
+        if (!live.getApi().isEmpty()) return Reader.of(live.spider().liveContent(live.getUrl()));
+        String url = UrlUtil.convert(live.getUrl());
+        if (!url.startsWith("http")) return Reader.of("");
+        try {
+            Response res = OkHttp.newCall(url, Headers.of(live.getHeaders())).execute();
+            if (res.isSuccessful()) return Reader.of(res.body());
+            res.close();
+            return Reader.fail();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return Reader.fail();
+        }
     }
 
     public static void text(Live live, String text) {
@@ -94,28 +138,15 @@ public class LiveParser {
     }
 
     public static void text(Live live, String text, String flowId) {
-        int number = 0;
         if (!live.getGroups().isEmpty()) return;
-        if (M3U.matcher(text).find()) m3u(live, text, flowId); else txt(live, text, flowId);
-        for (Group group : live.getGroups()) {
-            for (Channel channel : group.getChannel()) {
-                if (channel.getNumber().isEmpty()) channel.setNumber(++number);
-                channel.live(live);
-                if (flowId != null) {
-                    FlowLogger.logLiveChannelParse(flowId, channel.getName(), group.getName(), channel.getUrls().size());
-                }
-            }
-        }
+        Partial progress = new Partial(null);
+        if (M3U.matcher(text).find()) m3u(live, Reader.of(text), progress); else txt(live, Reader.of(text), progress);
+        finish(live, live, flowId);
     }
 
-    private static void json(Live live, String text) {
-        json(live, text, null);
-    }
-
-    private static void json(Live live, String text, String flowId) {
+    private static void finish(Live live, Live target, String flowId) {
         int number = 0;
-        live.getGroups().addAll(Group.arrayFrom(text));
-        for (Group group : live.getGroups()) {
+        for (Group group : target.getGroups()) {
             for (Channel channel : group.getChannel()) {
                 if (channel.getNumber().isEmpty()) channel.setNumber(++number);
                 channel.live(live);
@@ -126,55 +157,65 @@ public class LiveParser {
         }
     }
 
-    private static void m3u(Live live, String text) {
-        m3u(live, text, null);
+    private static void json(Live live, Reader reader, Partial progress) {
+        try (JsonReader json = new JsonReader(reader.charStream())) {
+            json.beginArray();
+            while (json.hasNext()) {
+                if (Thread.interrupted()) break;
+                Group group = Group.objectFrom(json);
+                if (group == null) continue;
+                live.getGroups().add(group);
+                progress.add(live, group.getChannel().size());
+            }
+            json.endArray();
+            reader.drain();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
     }
 
-    private static void m3u(Live live, String text, String flowId) {
+    private static void m3u(Live live, Reader reader, Partial progress) {
         Setting setting = Setting.create();
         Catchup catchup = Catchup.create();
         Channel channel = Channel.create("");
-        text = text.replace("\r\n", "\n").replace("\r", "");
-        for (String line : text.split("\n")) {
+        for (String line = reader.next(); line != null; line = reader.next()) {
             if (Thread.interrupted()) break;
             if (setting.find(line)) {
                 setting.check(line);
             } else if (line.startsWith("#EXTM3U")) {
-                catchup.setType(extract(line, CATCHUP));
-                catchup.setSource(extract(line, CATCHUP_SOURCE));
-                catchup.setReplace(extract(line, CATCHUP_REPLACE));
-                if (live.getEpg().isEmpty()) live.setEpg(extract(line, TVG_URL).replace("\"", ""));
-                if (live.getEpg().isEmpty()) live.setEpg(extract(line, URL_TVG).replace("\"", ""));
+                Attr attr = Attr.parse(line);
+                catchup.setType(attr.get(Attr.CATCHUP));
+                catchup.setSource(attr.get(Attr.CATCHUP_SOURCE));
+                catchup.setReplace(attr.get(Attr.CATCHUP_REPLACE));
+                if (live.getEpg().isEmpty()) live.setEpg(attr.get(Attr.TVG_URL).replace("\"", ""));
+                if (live.getEpg().isEmpty()) live.setEpg(attr.get(Attr.URL_TVG).replace("\"", ""));
                 if (live.getEpg().isEmpty()) live.setEpg(extract(line, "tvg-url=", "url-tvg="));
             } else if (line.startsWith("#EXTINF:")) {
-                Group group = live.find(Group.create(extract(line, GROUP), live.isPass()));
-                channel = group.find(Channel.create(extract(line, NAME)));
-                channel.setTvgName(extract(line, TVG_NAME));
-                channel.setNumber(extract(line, TVG_CHNO));
-                channel.setLogo(extract(line, TVG_LOGO));
-                channel.setTvgId(extract(line, TVG_ID));
+                Attr attr = Attr.parse(line);
+                Group group = live.find(Group.create(attr.get(Attr.GROUP), live.isPass()));
+                channel = group.find(Channel.create(attr.getName()));
+                channel.setTvgName(attr.get(Attr.TVG_NAME));
+                channel.setNumber(attr.get(Attr.TVG_CHNO));
+                channel.setLogo(attr.get(Attr.TVG_LOGO));
+                channel.setTvgId(attr.get(Attr.TVG_ID));
                 Catchup unknown = Catchup.create();
-                unknown.setType(extract(line, CATCHUP));
-                unknown.setSource(extract(line, CATCHUP_SOURCE));
-                unknown.setReplace(extract(line, CATCHUP_REPLACE));
+                unknown.setType(attr.get(Attr.CATCHUP));
+                unknown.setSource(attr.get(Attr.CATCHUP_SOURCE));
+                unknown.setReplace(attr.get(Attr.CATCHUP_REPLACE));
                 channel.setCatchup(Catchup.decide(unknown, catchup));
             } else if (!line.startsWith("#") && line.contains("://")) {
                 String[] split = line.split("\\|");
                 if (split.length > 1) setting.headers(Arrays.copyOfRange(split, 1, split.length));
                 channel.getUrls().add(split[0]);
                 setting.copy(channel).clear();
+                progress.add(live, 1);
             }
         }
     }
 
-    private static void txt(Live live, String text) {
-        txt(live, text, null);
-    }
-
-    private static void txt(Live live, String text, String flowId) {
+    private static void txt(Live live, Reader reader, Partial progress) {
         Setting setting = Setting.create();
-        text = text.replace("\r\n", "\n").replace("\r", "");
-        for (String line : text.split("\n")) {
+        for (String line = reader.next(); line != null; line = reader.next()) {
             if (Thread.interrupted()) break;
             String[] split = line.split(",", 2);
             if (setting.find(line)) setting.check(line);
@@ -186,7 +227,219 @@ public class LiveParser {
                 Channel channel = group.find(Channel.create(split[0]));
                 channel.addUrls(split[1].split("#"));
                 setting.copy(channel);
+                progress.add(live, 1);
+            }
+        }
+    }
+
+    /**
+     * Line source over the playlist body. Lines are read lazily, so large sources are never held as one String;
+     * lines consumed while sniffing the format are replayed before reading on. The raw bytes are hashed as they pass.
+     * A reader over a failed request or a broken stream is never done, so its hash is not cached.
+     */
+    private static class Reader implements Closeable {
+
+        private static final ByteString BOM = ByteString.decodeHex("efbbbf");
+
+        private final HashingSource hashing;
+        private final BufferedSource source;
+        private final LinkedList<String> cache;
+        private boolean failed;
+        private boolean done;
+
+        public static Reader fail() {
+            Reader reader = of("");
+            reader.failed = true;
+            return reader;
+        }
+
+        public static Reader of(String text) {
+            return new Reader(new Buffer().writeUtf8(text == null ? "" : text));
+        }
+
+        public static Reader of(ResponseBody body) throws IOException {
+            MediaType type = body.contentType();
+            Charset charset = type == null ? null : type.charset();
+            if (charset == null || StandardCharsets.UTF_8.equals(charset)) return new Reader(body.source());
+            return of(body.string());
+        }
+
+        private Reader(Source source) {
+            this.hashing = HashingSource.md5(source);
+            this.source = Okio.buffer(hashing);
+            this.cache = new LinkedList<>();
+            this.skipBom();
+        }
+
+        private void skipBom() {
+            try {
+                if (source.rangeEquals(0, BOM)) source.skip(BOM.size());
+            } catch (IOException ignored) {
+            }
+        }
+
+        public boolean isJson() {
+            try {
+                BufferedSource peek = source.peek();
+                if (next(peek) != '[') return false;
+                int b = next(peek);
+                return b == '{' || b == ']';
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Same answer as matching M3U against the whole text: scans until an #EXTM3U / #EXTINF line outside a #genre# line,
+         * so a TXT source ends up fully buffered here, as it was before.
+         */
+        public boolean isM3u() {
+            for (String line = read(); line != null; line = read()) {
+                cache.add(line);
+                if (M3U.matcher(line).find()) return true;
+            }
+            return false;
+        }
+
+        public boolean isDone() {
+            return done && !failed;
+        }
+
+        public String hash() {
+            return hashing.hash().hex();
+        }
+
+        public void drain() throws IOException {
+            while (source.request(1)) source.skip(source.getBuffer().size());
+            done = true;
+        }
+
+        public java.io.Reader charStream() {
+            return new InputStreamReader(source.inputStream(), StandardCharsets.UTF_8);
+        }
+
+        public String next() {
+            return cache.isEmpty() ? read() : cache.poll();
+        }
+
+        private String read() {
+            try {
+                String line = source.readUtf8Line();
+                if (line == null) done = true;
+                return line == null ? null : line.replace("\r", "");
+            } catch (IOException e) {
+                e.printStackTrace();
+                failed = true;
+                return null;
+            }
+        }
+
+        private int next(BufferedSource peek) throws IOException {
+            while (!peek.exhausted()) {
+                int b = peek.readByte() & 0xff;
+                if (b != ' ' && b != '\t' && b != '\r' && b != '\n') return b;
+            }
+            return -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+    }
+
+    /**
+     * Publishes a copy of the groups parsed so far once enough channels have arrived,
+     * so the list can be shown before the whole source is read.
+     */
+    private static class Partial {
+
+        private static final int SIZE = 500;
+
+        private final Consumer<Live> callback;
+        private int count;
+
+        public Partial(Consumer<Live> callback) {
+            this.callback = callback;
+        }
+
+        public void add(Live live, int size) {
+            if (callback == null || count < 0) return;
+            if ((count += size) < SIZE) return;
+            callback.accept(snapshot(live));
+            count = -1;
+        }
+
+        private Live snapshot(Live live) {
+            Live item = Live.get(live.getName());
+            for (Group group : live.getGroups()) item.getGroups().add(group.copy());
+            finish(live, item, null);
+            return item;
+        }
+    }
+
+    /**
+     * Single-pass scanner for the key="value" attributes of #EXTM3U / #EXTINF lines.
+     * Mirrors the former anchored ".*key=\"(.?|.+?)\".*" and ".*,(.+?)$" regex semantics:
+     * the last occurrence of a key with a closing quote wins and values are trimmed.
+     */
+    private static class Attr {
+
+        private static final String CATCHUP_REPLACE = "catchup-replace";
+        private static final String CATCHUP_SOURCE = "catchup-source";
+        private static final String CATCHUP = "catchup";
+        private static final String TVG_CHNO = "tvg-chno";
+        private static final String TVG_LOGO = "tvg-logo";
+        private static final String TVG_NAME = "tvg-name";
+        private static final String TVG_URL = "tvg-url";
+        private static final String TVG_ID = "tvg-id";
+        private static final String URL_TVG = "url-tvg";
+        private static final String GROUP = "group-title";
+        private static final String[] KEYS = {CATCHUP_REPLACE, CATCHUP_SOURCE, CATCHUP, TVG_CHNO, TVG_LOGO, TVG_NAME, TVG_URL, TVG_ID, URL_TVG, GROUP};
+
+        private final Map<String, String> values;
+        private String name;
+
+        public static Attr parse(String line) {
+            return new Attr(line.trim());
+        }
+
+        private Attr(String line) {
+            this.values = new HashMap<>();
+            this.name = "";
+            if (hasTerminator(line)) return;
+            for (int i = line.indexOf("=\""); i != -1; i = line.indexOf("=\"", i + 1)) put(line, i);
+            this.name = name(line);
+        }
+
+        public String get(String key) {
+            String value = values.get(key);
+            return value == null ? "" : value;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        private void put(String line, int index) {
+            int start = index + 2;
+            int end = start + 1 < line.length() && line.charAt(start + 1) == '"' ? start + 1 : line.indexOf('"', start);
+            if (end == -1) return;
+            for (String key : KEYS) if (index >= key.length() && line.startsWith(key, index - key.length())) values.put(key, line.substring(start, end).trim());
+        }
+
+        private String name(String line) {
+            int index = line.lastIndexOf(',');
+            if (index == line.length() - 1) index = line.lastIndexOf(',', index - 1);
+            return index == -1 ? "" : line.substring(index + 1).trim();
+        }
+
+        private boolean hasTerminator(String line) {
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') return true;
             }
+            return false;
         }
     }
 
@@ -30,7 +30,9 @@ import com.google.gson.JsonObject;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class LiveConfig {
 
@@ -40,6 +42,7 @@ public class LiveConfig {
     private Config config;
     private boolean sync;
     private Live home;
+    private volatile Index index = Index.EMPTY;
 
     // 流程跟踪ID
     private String currentFlowId;
@@ -97,6 +100,7 @@ public class LiveConfig {
         this.ads = new ArrayList<>();
         this.rules = new ArrayList<>();
         this.lives = new ArrayList<>();
+        this.index = Index.EMPTY;
         return config(Config.live());
     }
 
@@ -112,6 +116,7 @@ public class LiveConfig {
         this.ads.clear();
         this.rules.clear();
         this.lives.clear();
+        this.index = Index.EMPTY;
         return this;
     }
 
@@ -159,6 +164,7 @@ public class LiveConfig {
         Live live = new Live(parseName(config.getUrl()), config.getUrl()).sync();
         LiveParser.text(live, text);
         lives.add(live);
+        publish();
         setHome(live, true);
         App.post(callback::success);
     }
@@ -205,14 +211,16 @@ public class LiveConfig {
     private void initLive(JsonObject object) {
         String spider = Json.safeString(object, "spider");
         BaseLoader.get().parseJar(spider, false);
+        Map<String, Live> items = Live.findAll();
         for (JsonElement element : Json.safeListElement(object, "lives")) {
             Live live = Live.objectFrom(element);
             if (lives.contains(live)) continue;
             live.setApi(UrlUtil.convert(live.getApi()));
             live.setExt(UrlUtil.convert(live.getExt()));
             live.setJar(parseJar(live, spider));
-            lives.add(live.sync());
+            lives.add(live.sync(items));
         }
+        publish();
         for (Live live : lives) {
             if (live.getName().equals(config.getHome())) {
                 setHome(live, true);
@@ -233,6 +241,10 @@ public class LiveConfig {
         return live.getJar().isEmpty() ? spider : live.getJar();
     }
 
+    private void publish() {
+        index = new Index(lives);
+    }
+
     private void bootLive() {
         Setting.putBootLive(false);
         LiveActivity.start(App.get());
@@ -314,7 +326,7 @@ public class LiveConfig {
     }
 
     public List<Live> getLives() {
-        return lives == null ? lives = new ArrayList<>() : lives;
+        return index.lives;
     }
 
     public Config getConfig() {
@@ -326,8 +338,8 @@ public class LiveConfig {
     }
 
     public Live getLive(String key) {
-        int index = getLives().indexOf(Live.get(key));
-        return index == -1 ? new Live() : getLives().get(index);
+        Live live = index.liveMap.get(key);
+        return live == null ? new Live() : live;
     }
 
     public void setHome(Live home) {
@@ -342,4 +354,21 @@ public class LiveConfig {
         if (App.activity() != null && App.activity() instanceof LiveActivity) return;
         if (check) if (home.isBoot() || Setting.isBootLive()) App.post(this::bootLive);
     }
+
+    /**
+     * Immutable view of the lives with a name lookup, swapped in whole once a config is applied.
+     */
+    private static class Index {
+
+        private static final Index EMPTY = new Index(Collections.emptyList());
+
+        private final List<Live> lives;
+        private final Map<String, Live> liveMap;
+
+        private Index(List<Live> lives) {
+            this.lives = Collections.unmodifiableList(new ArrayList<>(lives));
+            this.liveMap = new HashMap<>();
+            for (Live live : this.lives) liveMap.putIfAbsent(live.getName(), live);
+        }
+    }
 }
@@ -23,7 +23,14 @@ import com.google.gson.JsonObject;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class VodConfig {
 
@@ -38,9 +45,12 @@ public class VodConfig {
     private Parse parse;
     private String wall;
     private Site home;
+    private volatile Index index = Index.EMPTY;
 
     // 流程跟踪ID
     private String currentFlowId;
+    private static boolean cold = true;
+    private long startTime;
 
     private static class Loader {
         static volatile VodConfig INSTANCE = new VodConfig();
@@ -94,6 +104,7 @@ public class VodConfig {
         this.flags = new ArrayList<>();
         this.parses = new ArrayList<>();
         this.loadLive = false;
+        this.index = Index.EMPTY;
         return this;
     }
 
@@ -113,14 +124,75 @@ public class VodConfig {
         this.flags.clear();
         this.parses.clear();
         this.loadLive = true;
+        this.index = Index.EMPTY;
         BaseLoader.get().clear();
         return this;
     }
 
+    private VodConfig reset() {
+        boolean live = loadLive;
+        clear();
+        loadLive = live;
+        return this;
+    }
+
     public void load(Callback callback) {
+        startTime = System.currentTimeMillis();
         App.execute(() -> loadConfig(callback));
     }
 
+    /**
+     * Renders from the last persisted config first, then fetches the remote copy and applies what changed.
+     */
+    public void load(Callback callback, boolean cache) {
+        if (!cache || TextUtils.isEmpty(config.getUrl()) || TextUtils.isEmpty(config.getJson())) {
+            load(callback);
+        } else {
+            startTime = System.currentTimeMillis();
+            App.execute(() -> loadStale(callback));
+        }
+    }
+
+    private void loadStale(Callback callback) {
+        String json = config.getJson();
+        Config config = this.config;
+        try {
+            JsonObject object = Json.parse(json).getAsJsonObject();
+            if (object.has("msg") || object.has("urls")) throw new IllegalStateException("stale config is not a config");
+            initConfig(object, callback);
+        } catch (Throwable e) {
+            e.printStackTrace();
+            reset().config(config).loadConfig(callback);
+            return;
+        }
+        revalidate(config, json, callback);
+    }
+
+    private void revalidate(Config config, String json, Callback callback) {
+        try {
+            JsonObject object = Json.parse(Decoder.getJson(UrlUtil.convert(config.getUrl()), "vod")).getAsJsonObject();
+            if (object.has("msg") || object.has("urls") || object.toString().equals(json)) return;
+            JsonObject old = Json.parse(json).getAsJsonObject();
+            JsonObject video = getVideo(object);
+            String spider = Json.safeString(video, "spider");
+            if (sites.isEmpty() || !spider.equals(Json.safeString(getVideo(old), "spider"))) {
+                if (this.config == config) reset().config(config).parseConfig(object, callback);
+                return;
+            }
+            Diff diff = new Diff(old, video, spider, object);
+            if (loadLive && object.has("lives") && !String.valueOf(object.get("lives")).equals(String.valueOf(old.get("lives")))) initLive(object);
+            App.post(() -> {
+                if (this.config != config) return;
+                boolean reload = diff.apply();
+                App.execute(() -> config.json(object.toString()).update());
+                if (diff.notice != null) callback.success(diff.notice);
+                if (reload) callback.success();
+            });
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
     private void loadConfig(Callback callback) {
         try {
             // 添加版本验证日志
@@ -165,43 +237,63 @@ public class VodConfig {
     }
 
     private void parseConfig(JsonObject object, Callback callback) {
+        try {
+            initConfig(object, callback);
+        } catch (Throwable e) {
+            Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+            FlowLogger.logVod(currentFlowId, FlowLogger.VodStage.CONFIG_PARSE, FlowLogger.Level.ERROR, "配置解析失败", cause);
+            cause.printStackTrace();
+            App.post(() -> callback.error(Notify.getError(R.string.error_config_parse, cause)));
+        }
+    }
+
+    private void initConfig(JsonObject object, Callback callback) throws Throwable {
+        Stages stages = new Stages();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
         try {
             FlowLogger.logVodConfigParseStart(currentFlowId);
-            initSite(object);
-            initParse(object);
-            initOther(object);
-            if (loadLive && object.has("lives")) initLive(object);
+            JsonObject video = getVideo(object);
+            String spider = Json.safeString(video, "spider");
+            Future<?> jar = executor.submit(() -> stages.run("jar", () -> initJar(spider)));
+            Future<?> live = loadLive && object.has("lives") ? executor.submit(() -> stages.run("live", () -> initLive(object))) : null;
+            stages.run("site", () -> initSite(video, spider));
+            stages.run("parse", () -> initParse(object));
+            stages.run("other", () -> initOther(object));
+            publish();
+            jar.get();
+            if (live != null) live.get();
             String notice = Json.safeString(object, "notice");
             config.logo(Json.safeString(object, "logo"));
             FlowLogger.logVodConfigParseSuccess(currentFlowId, sites.size(), parses.size());
+            FlowLogger.logVodConfigTiming(currentFlowId, stages.times, System.currentTimeMillis() - startTime, cold ? System.currentTimeMillis() - App.time() : -1);
+            cold = false;
             App.post(() -> callback.success(notice));
             config.json(object.toString()).update();
             App.post(callback::success);
         } catch (Throwable e) {
-            FlowLogger.logVod(currentFlowId, FlowLogger.VodStage.CONFIG_PARSE, FlowLogger.Level.ERROR, "配置解析失败", e);
-            e.printStackTrace();
-            App.post(() -> callback.error(Notify.getError(R.string.error_config_parse, e)));
+            executor.shutdownNow();
+            throw e;
+        } finally {
+            executor.shutdown();
         }
     }
 
-    private void initSite(JsonObject object) {
-        if (object.has("video")) {
-            initSite(object.getAsJsonObject("video"));
-            return;
-        }
-        String spider = Json.safeString(object, "spider");
+    private JsonObject getVideo(JsonObject object) {
+        return object.has("video") ? getVideo(object.getAsJsonObject("video")) : object;
+    }
+
+    private void initJar(String spider) {
         if (!TextUtils.isEmpty(spider)) {
             FlowLogger.logSpiderLoad(currentFlowId, "JAR", spider);
         }
         BaseLoader.get().parseJar(spider, true);
+    }
+
+    private void initSite(JsonObject object, String spider) {
+        Map<String, Site> items = Site.findAll();
         for (JsonElement element : Json.safeListElement(object, "sites")) {
             Site site = Site.objectFrom(element);
-            if (sites.contains(site)) continue;
-            site.setApi(UrlUtil.convert(site.getApi()));
-            site.setExt(UrlUtil.convert(site.getExt()));
-            site.setJar(parseJar(site, spider));
-            FlowLogger.logVodSiteInit(currentFlowId, site.getKey(), site.getName(), site.getApi());
-            sites.add(site.trans().sync());
+            if (!sites.contains(site)) sites.add(initSite(site, spider, items));
         }
         for (Site site : sites) {
             if (site.getKey().equals(config.getHome())) {
@@ -210,6 +302,14 @@ public class VodConfig {
         }
     }
 
+    private Site initSite(Site site, String spider, Map<String, Site> items) {
+        site.setApi(UrlUtil.convert(site.getApi()));
+        site.setExt(UrlUtil.convert(site.getExt()));
+        site.setJar(parseJar(site, spider));
+        FlowLogger.logVodSiteInit(currentFlowId, site.getKey(), site.getName(), site.getApi());
+        return site.trans().sync(items);
+    }
+
     private void initLive(JsonObject object) {
         Config temp = Config.find(config, 1).save();
         boolean sync = LiveConfig.get().needSync(config.getUrl());
@@ -263,11 +363,11 @@ public class VodConfig {
     }
 
     public List<Site> getSites() {
-        return sites == null ? Collections.emptyList() : sites;
+        return index.sites;
     }
 
     public List<Parse> getParses() {
-        return parses == null ? Collections.emptyList() : parses;
+        return index.parses;
     }
 
     public List<Parse> getParses(int type) {
@@ -328,27 +428,40 @@ public class VodConfig {
     }
 
     public Parse getParse(String name) {
-        int index = getParses().indexOf(Parse.get(name));
-        return index == -1 ? null : getParses().get(index);
+        return index.parseMap.get(name);
     }
 
     public Site getSite(String key) {
-        int index = getSites().indexOf(Site.get(key));
-        return index == -1 ? new Site() : getSites().get(index);
+        Site site = index.siteMap.get(key);
+        return site == null ? new Site() : site;
     }
 
     public void setParse(Parse parse) {
+        setParse(parse, true);
+    }
+
+    private void setParse(Parse parse, boolean save) {
         this.parse = parse;
         this.parse.setActivated(true);
-        config.parse(parse.getName()).save();
-        for (Parse item : getParses()) item.setActivated(parse);
+        config.parse(parse.getName());
+        if (save) config.save();
+        for (Parse item : parses) item.setActivated(parse);
     }
 
     public void setHome(Site home) {
+        setHome(home, true);
+    }
+
+    private void setHome(Site home, boolean save) {
         this.home = home;
         this.home.setActivated(true);
-        config.home(home.getKey()).save();
-        for (Site item : getSites()) item.setActivated(home);
+        config.home(home.getKey());
+        if (save) config.save();
+        for (Site item : sites) item.setActivated(home);
+    }
+
+    private void publish() {
+        index = new Index(sites, parses);
     }
 
     private void setWall(String wall) {
@@ -356,4 +469,125 @@ public class VodConfig {
         boolean load = !TextUtils.isEmpty(wall) && WallConfig.get().needSync(wall);
         if (load) WallConfig.get().config(Config.find(wall, config.getName(), 2).update());
     }
+
+    private static class Stages {
+
+        private final Map<String, Long> times = Collections.synchronizedMap(new LinkedHashMap<>());
+
+        private void run(String name, Runnable runnable) {
+            long start = System.currentTimeMillis();
+            try {
+                runnable.run();
+            } finally {
+                times.put(name, System.currentTimeMillis() - start);
+            }
+        }
+    }
+
+    /**
+     * Sites and parses of a revalidated config, reusing the current objects whose json did not change.
+     * Applied on the main thread in memory only; the caller persists the config afterwards.
+     */
+    private class Diff {
+
+        private final JsonObject object;
+        private final List<Site> sites;
+        private final List<Parse> parses;
+        private final List<Site> removed;
+        private final String notice;
+        private final String logo;
+        private final boolean relogo;
+
+        private Diff(JsonObject old, JsonObject video, String spider, JsonObject object) {
+            String notice = Json.safeString(object, "notice");
+            this.notice = notice.isEmpty() || notice.equals(Json.safeString(old, "notice")) ? null : notice;
+            this.logo = Json.safeString(object, "logo");
+            this.relogo = !logo.equals(Json.safeString(old, "logo"));
+            this.object = object;
+            this.sites = new ArrayList<>();
+            this.parses = new ArrayList<>();
+            this.removed = new ArrayList<>();
+            initSite(elements(getVideo(old), "sites", "key"), video, spider);
+            initParse(elements(old, "parses", "name"));
+        }
+
+        private Map<String, String> elements(JsonObject object, String name, String id) {
+            Map<String, String> items = new HashMap<>();
+            for (JsonElement element : Json.safeListElement(object, name)) if (element.isJsonObject()) items.put(Json.safeString(element.getAsJsonObject(), id), element.toString());
+            return items;
+        }
+
+        private void initSite(Map<String, String> before, JsonObject video, String spider) {
+            Map<String, Site> items = Site.findAll();
+            for (JsonElement element : Json.safeListElement(video, "sites")) {
+                Site site = Site.objectFrom(element);
+                if (sites.contains(site)) continue;
+                Site current = getSite(site.getKey());
+                boolean same = !current.isEmpty() && element.toString().equals(before.remove(site.getKey()));
+                if (!same && !current.isEmpty()) removed.add(current);
+                sites.add(same ? current : VodConfig.this.initSite(site, spider, items));
+            }
+            for (String key : before.keySet()) if (!getSite(key).isEmpty()) removed.add(getSite(key));
+        }
+
+        private void initParse(Map<String, String> before) {
+            for (JsonElement element : Json.safeListElement(object, "parses")) {
+                Parse parse = Parse.objectFrom(element);
+                if (parses.contains(parse)) continue;
+                Parse current = getParse(parse.getName());
+                boolean same = current != null && element.toString().equals(before.get(parse.getName()));
+                parses.add(same ? current : parse);
+            }
+            if (!parses.isEmpty()) parses.add(0, Parse.god());
+        }
+
+        private boolean apply() {
+            String key = getHome().getKey();
+            String name = getParse().getName();
+            VodConfig.this.sites.clear();
+            VodConfig.this.sites.addAll(sites);
+            VodConfig.this.parses.clear();
+            VodConfig.this.parses.addAll(parses);
+            publish();
+            for (Site site : removed) BaseLoader.get().remove(site.getKey(), site.getApi(), site.getJar());
+            Site site = getSite(key);
+            Parse parse = getParse(name);
+            boolean reload = site != home || relogo;
+            setHome(!site.isEmpty() ? site : sites.isEmpty() ? new Site() : sites.get(0), false);
+            setParse(parse != null ? parse : parses.isEmpty() ? new Parse() : parses.get(0), false);
+            config.logo(logo);
+            setRules(Rule.arrayFrom(object.getAsJsonArray("rules")));
+            setDoh(Doh.arrayFrom(object.getAsJsonArray("doh")));
+            setHeaders(Json.safeListElement(object, "headers"));
+            flags.clear();
+            setFlags(Json.safeListString(object, "flags"));
+            setHosts(Json.safeListString(object, "hosts"));
+            setProxy(Json.safeListString(object, "proxy"));
+            setAds(Json.safeListString(object, "ads"));
+            App.execute(() -> setWall(Json.safeString(object, "wallpaper")));
+            return reload;
+        }
+    }
+
+    /**
+     * Immutable view of the sites and parses with key lookups, swapped in whole once a config is applied.
+     */
+    private static class Index {
+
+        private static final Index EMPTY = new Index(Collections.emptyList(), Collections.emptyList());
+
+        private final List<Site> sites;
+        private final List<Parse> parses;
+        private final Map<String, Site> siteMap;
+        private final Map<String, Parse> parseMap;
+
+        private Index(List<Site> sites, List<Parse> parses) {
+            this.sites = Collections.unmodifiableList(new ArrayList<>(sites));
+            this.parses = Collections.unmodifiableList(new ArrayList<>(parses));
+            this.siteMap = new HashMap<>();
+            this.parseMap = new HashMap<>();
+            for (Site site : this.sites) siteMap.putIfAbsent(site.getKey(), site);
+            for (Parse parse : this.parses) parseMap.putIfAbsent(parse.getName(), parse);
+        }
+    }
 }
@@ -51,6 +51,12 @@ public class BaseLoader {
         this.jsLoader.clear();
     }
 
+    public void remove(String key, String api, String jar) {
+        if (api.contains(".py")) pyLoader.remove(key);
+        else if (api.contains(".js")) jsLoader.remove(key);
+        else if (api.startsWith("csp_")) jarLoader.remove(key, jar);
+    }
+
     public Spider getSpider(String key, String api, String ext, String jar) {
         boolean js = api.contains(".js");
         boolean py = api.contains(".py");
@@ -13,6 +13,7 @@ import com.github.catvod.utils.Util;
 import org.json.JSONObject;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -21,17 +22,23 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import dalvik.system.DexClassLoader;
 
+import okhttp3.Response;
+import okio.HashingSink;
+import okio.Okio;
+
 public class JarLoader {
 
     private final ConcurrentHashMap<String, DexClassLoader> loaders;
     private final ConcurrentHashMap<String, Method> methods;
     private final ConcurrentHashMap<String, Spider> spiders;
+    private final ConcurrentHashMap<String, Object> locks;
     private String recent;
 
     public JarLoader() {
         loaders = new ConcurrentHashMap<>();
         methods = new ConcurrentHashMap<>();
         spiders = new ConcurrentHashMap<>();
+        locks = new ConcurrentHashMap<>();
     }
 
     public void clear() {
@@ -41,24 +48,30 @@ public class JarLoader {
         spiders.clear();
     }
 
+    public void remove(String key, String jar) {
+        Spider spider = spiders.remove(Util.md5(jar) + key);
+        if (spider != null) App.execute(spider::destroy);
+    }
+
     public void setRecent(String recent) {
         this.recent = recent;
     }
 
     private void load(String key, File file) {
-        if (!file.setReadOnly()) return;
-        loaders.put(key, dex(file));
-        invokeInit(key);
-        putProxy(key);
+        if (file == null || !file.setReadOnly()) return;
+        DexClassLoader loader = dex(file);
+        invokeInit(loader);
+        putProxy(key, loader);
+        loaders.put(key, loader);
     }
 
     private DexClassLoader dex(File file) {
         return new DexClassLoader(file.getAbsolutePath(), Path.jar().getAbsolutePath(), null, App.get().getClassLoader());
     }
 
-    private void invokeInit(String key) {
+    private void invokeInit(DexClassLoader loader) {
         try {
-            Class<?> clz = loaders.get(key).loadClass("com.github.catvod.spider.Init");
+            Class<?> clz = loader.loadClass("com.github.catvod.spider.Init");
             Method method = clz.getMethod("init", Context.class);
             method.invoke(clz, App.get());
         } catch (Throwable e) {
@@ -66,9 +79,9 @@ public class JarLoader {
         }
     }
 
-    private void putProxy(String key) {
+    private void putProxy(String key, DexClassLoader loader) {
         try {
-            Class<?> clz = loaders.get(key).loadClass("com.github.catvod.spider.Proxy");
+            Class<?> clz = loader.loadClass("com.github.catvod.spider.Proxy");
             Method method = clz.getMethod("proxy", Map.class);
             methods.put(key, method);
         } catch (Throwable e) {
@@ -76,28 +89,79 @@ public class JarLoader {
         }
     }
 
-    private File download(String url) {
-        try {
-            return Path.write(Path.jar(url), OkHttp.bytes(url));
+    private File content(String md5) {
+        return new File(Path.jar(), md5.toLowerCase().concat(".jar"));
+    }
+
+    private File ref(String url) {
+        return new File(Path.jar(), Util.md5(url).concat(".ref"));
+    }
+
+    private File cache(String url) {
+        File file = content(Path.read(ref(url)).trim());
+        return file.exists() ? file : Path.jar(url);
+    }
+
+    /**
+     * @param pinned the ;md5; of the spider string, if any; a download that does not match it is discarded, never loaded.
+     */
+    private File download(String key, String url, String pinned) {
+        String md5;
+        File temp = new File(Path.jar(), Util.md5(url) + "." + key + ".tmp");
+        try (Response res = OkHttp.newCall(url).execute(); HashingSink sink = HashingSink.md5(Okio.sink(temp))) {
+            if (!res.isSuccessful()) throw new IOException(res.message());
+            res.body().source().readAll(sink);
+            md5 = sink.hash().hex();
         } catch (Exception e) {
-            return Path.jar(url);
+            e.printStackTrace();
+            Path.clear(temp);
+            return cache(url);
+        }
+        if (!pinned.isEmpty() && !pinned.equalsIgnoreCase(md5)) {
+            android.util.Log.e("VOD_FLOW", String.format("[JAR_MD5_MISMATCH] Jar校验失败: %s，期望: %s，实际: %s", url, pinned, md5));
+            Path.clear(temp);
+            return null;
+        }
+        File file = content(md5);
+        if (file.exists()) Path.clear(temp);
+        else if (!temp.renameTo(file)) return cache(url);
+        File ref = ref(url);
+        String old = ref.exists() ? Path.read(ref).trim() : "";
+        Path.write(ref, md5.getBytes());
+        if (!old.equalsIgnoreCase(md5)) prune(old);
+        return file;
+    }
+
+    /**
+     * Deletes a content jar once no url refers to it anymore.
+     */
+    private void prune(String md5) {
+        if (md5.isEmpty()) return;
+        File[] refs = Path.jar().listFiles((dir, name) -> name.endsWith(".ref"));
+        if (refs != null) for (File ref : refs) if (md5.equalsIgnoreCase(Path.read(ref).trim())) return;
+        Path.clear(content(md5));
+    }
+
+    public void parseJar(String key, String jar) {
+        if (loaders.containsKey(key)) return;
+        synchronized (locks.computeIfAbsent(key, k -> new Object())) {
+            if (!loaders.containsKey(key)) parse(key, jar);
         }
     }
 
-    public synchronized void parseJar(String key, String jar) {
-        if (loaders.containsKey(key)) return;
+    private void parse(String key, String jar) {
         String[] texts = jar.split(";md5;");
         String md5 = texts.length > 1 ? texts[1].trim() : "";
         if (md5.startsWith("http")) md5 = OkHttp.string(md5).trim();
         jar = texts[0];
-        if (!md5.isEmpty() && Util.equals(jar, md5)) {
-            load(key, Path.jar(jar));
+        if (!md5.isEmpty() && content(md5).exists()) {
+            load(key, content(md5));
         } else if (jar.startsWith("http")) {
-            load(key, download(jar));
+            load(key, download(key, jar, md5));
         } else if (jar.startsWith("file")) {
             load(key, Path.local(jar));
         } else if (jar.startsWith("assets")) {
-            parseJar(key, UrlUtil.convert(jar));
+            parse(key, UrlUtil.convert(jar));
         }
     }
 
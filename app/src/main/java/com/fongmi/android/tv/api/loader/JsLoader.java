@@ -1,6 +1,8 @@
 package com.fongmi.android.tv.api.loader;
 
 import com.fongmi.android.tv.App;
+import com.fongmi.android.tv.api.config.VodConfig;
+import com.fongmi.android.tv.bean.Site;
 import com.fongmi.android.tv.utils.FlowLogger;
 import com.github.catvod.crawler.Spider;
 import com.github.catvod.crawler.SpiderNull;
@@ -23,6 +25,11 @@ public class JsLoader {
         spiders.clear();
     }
 
+    public void remove(String key) {
+        Spider spider = spiders.remove(key);
+        if (spider != null) App.execute(spider::destroy);
+    }
+
     public void setRecent(String recent) {
         this.recent = recent;
     }
@@ -43,9 +50,11 @@ public class JsLoader {
             // 设置Module的流程ID，这样JavaScript模块下载时也能记录日志
             com.fongmi.quickjs.utils.Module.get().setFlowId(currentFlowId);
 
-            Spider spider = new com.fongmi.quickjs.crawler.Spider(key, api, BaseLoader.get().dex(jar));
+            Site site = VodConfig.get().getSite(key);
+            Spider spider = new com.fongmi.quickjs.crawler.Spider(key, api, BaseLoader.get().dex(jar), site.getWorkers());
             if (spider instanceof com.fongmi.quickjs.crawler.Spider) {
                 ((com.fongmi.quickjs.crawler.Spider) spider).setFlowId(currentFlowId);
+                ((com.fongmi.quickjs.crawler.Spider) spider).setTimeout(site.getCallTimeout());
             }
 
             spider.init(App.get(), ext);
@@ -24,6 +24,11 @@ public class PyLoader {
         spiders.clear();
     }
 
+    public void remove(String key) {
+        Spider spider = spiders.remove(key);
+        if (spider != null) App.execute(spider::destroy);
+    }
+
     public void setRecent(String recent) {
         this.recent = recent;
     }
@@ -2,11 +2,17 @@ package com.fongmi.android.tv.bean;
 
 import android.text.TextUtils;
 
+import com.fongmi.android.tv.utils.TimeCodec;
 import com.google.gson.annotations.SerializedName;
 
 import java.net.URI;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -23,6 +29,9 @@ public class Catchup {
     @SerializedName("replace")
     private String replace;
 
+    private transient Pattern pattern;
+    private transient Template template;
+
     public static Catchup PLTV() {
         Catchup item = new Catchup();
         item.setDays("7");
@@ -65,6 +74,7 @@ public class Catchup {
 
     public void setRegex(String regex) {
         this.regex = regex;
+        this.pattern = null;
     }
 
     public String getReplace() {
@@ -81,10 +91,13 @@ public class Catchup {
 
     public void setSource(String source) {
         this.source = source;
+        this.template = null;
     }
 
     public boolean match(String url) {
-        return url.contains(getRegex()) || Pattern.compile(getRegex()).matcher(url).find();
+        if (url.contains(getRegex())) return true;
+        if (pattern == null) pattern = Pattern.compile(getRegex());
+        return pattern.matcher(url).find();
     }
 
     public boolean isEmpty() {
@@ -107,20 +120,218 @@ public class Catchup {
     }
 
     public String format(String url, EpgData data) {
-        String result = getSource();
-        Matcher matcher = Pattern.compile("(\\$?\\{[^}]*\\})").matcher(result);
-        while (matcher.find()) result = result.replace(matcher.group(1), format(matcher.group(1), data.getStartTime(), data.getEndTime()));
+        if (template == null) template = Template.get(getSource());
+        String result = template.format(data.getStartTime(), data.getEndTime(), System.currentTimeMillis());
         return isDefault() ? result : append(url, result);
     }
 
-    private String format(String group, long start, long end) {
-        Matcher matcher = Pattern.compile("\\{([^}]+)\\}").matcher(group);
-        if (!matcher.find()) return "";
-        String tag = matcher.group(1);
-        if (tag.startsWith("(b")) return new SimpleDateFormat(tag.split("\\)")[1], Locale.getDefault()).format(start);
-        if (tag.startsWith("(e")) return new SimpleDateFormat(tag.split("\\)")[1], Locale.getDefault()).format(end);
-        if (tag.startsWith("utcend:")) return String.valueOf(end / 1000);
-        if (tag.startsWith("utc:")) return String.valueOf(start / 1000);
-        return "";
+    private static class Template {
+
+        private static final Map<String, Template> CACHE = new ConcurrentHashMap<>();
+        private static final Pattern GROUP = Pattern.compile("\\$?\\{([^}]*)\\}");
+
+        private final List<Segment> segments;
+
+        private Template(String source) {
+            this.segments = new ArrayList<>();
+            Matcher matcher = GROUP.matcher(source);
+            int last = 0;
+            while (matcher.find()) {
+                if (matcher.start() > last) segments.add(Segment.text(source.substring(last, matcher.start())));
+                segments.add(Segment.tag(matcher.group(1)));
+                last = matcher.end();
+            }
+            if (last < source.length()) segments.add(Segment.text(source.substring(last)));
+        }
+
+        private static Template get(String source) {
+            Template template = CACHE.get(source);
+            if (template != null) return template;
+            template = new Template(source);
+            Template exist = CACHE.putIfAbsent(source, template);
+            return exist != null ? exist : template;
+        }
+
+        private String format(long start, long end, long now) {
+            TimeZone zone = TimeZone.getDefault();
+            StringBuilder builder = new StringBuilder();
+            for (Segment segment : segments) segment.append(builder, start, end, now, zone);
+            return builder.toString();
+        }
+    }
+
+    private static class Segment {
+
+        private static final int TEXT = 0;
+        private static final int START = 1;
+        private static final int END = 2;
+        private static final int UTC = 3;
+        private static final int UTC_END = 4;
+        private static final int NOW = 5;
+        private static final int OFFSET = 6;
+        private static final int DURATION = 7;
+
+        private final int type;
+        private final String text;
+        private final long divider;
+        private final Layout date;
+
+        private Segment(int type, String text, long divider, Layout date) {
+            this.type = type;
+            this.text = text;
+            this.divider = divider;
+            this.date = date;
+        }
+
+        private static Segment text(String text) {
+            return new Segment(TEXT, text, 1, null);
+        }
+
+        private static Segment tag(String tag) {
+            if (tag.startsWith("(b")) return new Segment(START, null, 1, Layout.compile(tag.substring(tag.indexOf(')') + 1)));
+            if (tag.startsWith("(e")) return new Segment(END, null, 1, Layout.compile(tag.substring(tag.indexOf(')') + 1)));
+            String[] splits = tag.split(":", 2);
+            long divider = splits.length == 2 && splits[1].matches("\\d+") ? Math.max(Long.parseLong(splits[1]), 1) : 1;
+            if (splits.length == 1 && (splits[0].equals("utc") || splits[0].equals("utcend"))) return text("");
+            switch (splits[0]) {
+                case "utc":
+                case "start":
+                    return new Segment(UTC, null, 1, null);
+                case "utcend":
+                case "end":
+                    return new Segment(UTC_END, null, 1, null);
+                case "lutc":
+                case "now":
+                case "timestamp":
+                    return new Segment(NOW, null, 1, null);
+                case "offset":
+                    return new Segment(OFFSET, null, divider, null);
+                case "duration":
+                    return new Segment(DURATION, null, divider, null);
+                default:
+                    return text("");
+            }
+        }
+
+        private void append(StringBuilder builder, long start, long end, long now, TimeZone zone) {
+            switch (type) {
+                case TEXT:
+                    builder.append(text);
+                    break;
+                case START:
+                    date.append(builder, start, zone);
+                    break;
+                case END:
+                    date.append(builder, end, zone);
+                    break;
+                case UTC:
+                    builder.append(start / 1000);
+                    break;
+                case UTC_END:
+                    builder.append(end / 1000);
+                    break;
+                case NOW:
+                    builder.append(now / 1000);
+                    break;
+                case OFFSET:
+                    builder.append((now - start) / 1000 / divider);
+                    break;
+                case DURATION:
+                    builder.append((end - start) / 1000 / divider);
+                    break;
+            }
+        }
+    }
+
+    private static class Layout {
+
+        private final char[] letters;
+        private final int[] widths;
+        private final String[] texts;
+        private final String fallback;
+
+        private Layout(List<Character> letters, List<Integer> widths, List<String> texts, String fallback) {
+            this.letters = new char[letters.size()];
+            this.widths = new int[widths.size()];
+            this.texts = texts.toArray(new String[0]);
+            this.fallback = fallback;
+            for (int i = 0; i < letters.size(); i++) this.letters[i] = letters.get(i);
+            for (int i = 0; i < widths.size(); i++) this.widths[i] = widths.get(i);
+        }
+
+        private static Layout compile(String pattern) {
+            List<Character> letters = new ArrayList<>();
+            List<Integer> widths = new ArrayList<>();
+            List<String> texts = new ArrayList<>();
+            for (int i = 0; i < pattern.length(); ) {
+                char c = pattern.charAt(i);
+                if (c == '\'') {
+                    int close = pattern.indexOf('\'', i + 1);
+                    if (close < 0) close = pattern.length();
+                    add(letters, widths, texts, close == i + 1 ? "'" : pattern.substring(i + 1, close));
+                    i = close + 1;
+                } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                    int j = i;
+                    while (j < pattern.length() && pattern.charAt(j) == c) j++;
+                    if ("yMdHmsS".indexOf(c) < 0 || (c == 'M' && j - i > 2)) return new Layout(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), pattern);
+                    letters.add(c);
+                    widths.add(j - i);
+                    texts.add(null);
+                    i = j;
+                } else {
+                    add(letters, widths, texts, String.valueOf(c));
+                    i++;
+                }
+            }
+            return new Layout(letters, widths, texts, null);
+        }
+
+        private static void add(List<Character> letters, List<Integer> widths, List<String> texts, String text) {
+            letters.add('\0');
+            widths.add(0);
+            texts.add(text);
+        }
+
+        private void append(StringBuilder builder, long time, TimeZone zone) {
+            if (fallback != null) {
+                SimpleDateFormat format = new SimpleDateFormat(fallback, Locale.getDefault());
+                format.setTimeZone(zone);
+                builder.append(format.format(time));
+                return;
+            }
+            int[] fields = new int[7];
+            TimeCodec.fields(time, zone, fields);
+            for (int i = 0; i < letters.length; i++) {
+                if (texts[i] != null) builder.append(texts[i]);
+                else append(builder, letters[i], widths[i], fields);
+            }
+        }
+
+        private void append(StringBuilder builder, char letter, int width, int[] fields) {
+            switch (letter) {
+                case 'y':
+                    if (width == 2) TimeCodec.append(builder, fields[TimeCodec.YEAR] % 100, 2);
+                    else TimeCodec.append(builder, fields[TimeCodec.YEAR], width);
+                    break;
+                case 'M':
+                    TimeCodec.append(builder, fields[TimeCodec.MONTH], width);
+                    break;
+                case 'd':
+                    TimeCodec.append(builder, fields[TimeCodec.DAY_OF_MONTH], width);
+                    break;
+                case 'H':
+                    TimeCodec.append(builder, fields[TimeCodec.HOUR], width);
+                    break;
+                case 'm':
+                    TimeCodec.append(builder, fields[TimeCodec.MINUTE], width);
+                    break;
+                case 's':
+                    TimeCodec.append(builder, fields[TimeCodec.SECOND], width);
+                    break;
+                case 'S':
+                    TimeCodec.append(builder, fields[TimeCodec.MILLISECOND], width);
+                    break;
+            }
+        }
     }
 }
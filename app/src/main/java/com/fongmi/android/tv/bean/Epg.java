@@ -4,16 +4,16 @@ import android.text.TextUtils;
 
 import com.fongmi.android.tv.App;
 import com.fongmi.android.tv.api.EpgParser;
-import com.fongmi.android.tv.utils.Util;
+import com.fongmi.android.tv.utils.TimeCodec;
 import com.github.catvod.utils.Json;
 import com.github.catvod.utils.Trans;
 import com.google.gson.annotations.SerializedName;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.TimeZone;
 
 public class Epg {
 
@@ -26,10 +26,10 @@ public class Epg {
 
     private int width;
 
-    public static Epg objectFrom(String str, String key, List<SimpleDateFormat> formats) throws Exception {
+    public static Epg objectFrom(String str, String key, TimeZone zone) throws Exception {
         if (!Json.isObj(str)) return EpgParser.getEpg(str, key);
         Epg item = App.gson().fromJson(str, Epg.class);
-        item.setTime(formats);
+        item.setTime(zone);
         item.setKey(key);
         return item;
     }
@@ -78,11 +78,11 @@ public class Epg {
         return getDate().equals(date);
     }
 
-    private void setTime(List<SimpleDateFormat> formats) {
+    private void setTime(TimeZone zone) {
         setList(new ArrayList<>(new LinkedHashSet<>(getList())));
         for (EpgData item : getList()) {
-            item.setStartTime(Util.format(getDate().concat(item.getStart()), formats));
-            item.setEndTime(Util.format(getDate().concat(item.getEnd()), formats));
+            item.setStartTime(TimeCodec.parse(getDate().concat(item.getStart()), zone));
+            item.setEndTime(TimeCodec.parse(getDate().concat(item.getEnd()), zone));
             if (item.getEndTime() < item.getStartTime()) item.checkDay();
             item.setTitle(Trans.s2t(item.getTitle()));
         }
@@ -9,11 +9,14 @@ import com.fongmi.android.tv.R;
 import com.fongmi.android.tv.utils.ResUtil;
 import com.google.gson.annotations.SerializedName;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
 
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class Group {
 
@@ -24,6 +27,10 @@ public class Group {
     @SerializedName("pass")
     private String pass;
 
+    private transient Map<String, Channel> index;
+    private transient List<Channel> indexed;
+    private transient int count;
+
     private boolean selected;
     private int position;
     private int width;
@@ -34,6 +41,10 @@ public class Group {
         return items == null ? Collections.emptyList() : items;
     }
 
+    public static Group objectFrom(JsonReader reader) {
+        return App.gson().fromJson(reader, Group.class);
+    }
+
     public static Group create() {
         return create(R.string.setting_live);
     }
@@ -46,6 +57,17 @@ public class Group {
         return new Group(name, pass);
     }
 
+    public static Group create(String name, String pass, List<Channel> channel) {
+        Group item = new Group();
+        item.setName(name);
+        item.setPass(pass);
+        item.setChannel(channel);
+        return item;
+    }
+
+    private Group() {
+    }
+
     public Group(String name) {
         this(name, false);
     }
@@ -143,12 +165,42 @@ public class Group {
     }
 
     public Channel find(Channel channel) {
-        int index = getChannel().indexOf(channel);
-        if (index != -1) return getChannel().get(index);
+        Map<String, Channel> index = index();
+        Channel item = channel.getName().isEmpty() ? scan(channel) : index.get(channel.getName());
+        if (item != null) return item;
         getChannel().add(channel);
+        if (!channel.getName().isEmpty()) index.put(channel.getName(), channel);
+        count++;
         return channel;
     }
 
+    private Channel scan(Channel channel) {
+        int index = getChannel().indexOf(channel);
+        return index == -1 ? null : getChannel().get(index);
+    }
+
+    private Map<String, Channel> index() {
+        if (index != null && indexed == getChannel() && count == indexed.size()) return index;
+        index = new HashMap<>();
+        indexed = getChannel();
+        count = indexed.size();
+        for (Channel item : indexed) if (!item.getName().isEmpty()) index.putIfAbsent(item.getName(), item);
+        return index;
+    }
+
+    public Group copy() {
+        Group item = new Group();
+        item.setName(getName());
+        item.setPass(getPass());
+        item.setPosition(getPosition());
+        for (Channel channel : getChannel()) {
+            Channel copy = Channel.create(channel);
+            copy.setUrls(new ArrayList<>(channel.getUrls()));
+            item.getChannel().add(copy);
+        }
+        return item;
+    }
+
     public Channel current() {
         return getChannel().get(getPosition()).group(this);
     }
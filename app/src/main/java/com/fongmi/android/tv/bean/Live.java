@@ -24,6 +24,7 @@ import com.google.gson.reflect.TypeToken;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -116,6 +117,15 @@ public class Live {
     @Ignore
     private int width;
 
+    @Ignore
+    private transient Map<String, Group> index;
+
+    @Ignore
+    private transient List<Group> indexed;
+
+    @Ignore
+    private transient int count;
+
     public static Live objectFrom(JsonElement element) {
         return App.gson().fromJson(element, Live.class);
     }
@@ -140,6 +150,28 @@ public class Live {
         this.url = url;
     }
 
+    public Live copy() {
+        Live item = new Live(getName(), url);
+        item.api = api;
+        item.ext = ext;
+        item.jar = jar;
+        item.click = click;
+        item.logo = logo;
+        item.epg = epg;
+        item.ua = ua;
+        item.origin = origin;
+        item.referer = referer;
+        item.timeZone = timeZone;
+        item.keep = keep;
+        item.timeout = timeout;
+        item.header = header;
+        item.catchup = catchup;
+        item.core = core;
+        item.boot = boot;
+        item.pass = pass;
+        return item;
+    }
+
     public String getName() {
         return TextUtils.isEmpty(name) ? "" : name;
     }
@@ -292,11 +324,23 @@ public class Live {
     }
 
     public Group find(Group item) {
-        for (Group group : getGroups()) if (group.getName().equals(item.getName())) return group;
+        Group group = index().get(item.getName());
+        if (group != null) return group;
         getGroups().add(item);
+        index.put(item.getName(), item);
+        count++;
         return item;
     }
 
+    private Map<String, Group> index() {
+        if (index != null && indexed == getGroups() && count == indexed.size()) return index;
+        index = new HashMap<>();
+        indexed = getGroups();
+        count = indexed.size();
+        for (Group group : indexed) index.putIfAbsent(group.getName(), group);
+        return index;
+    }
+
     public int getBootIcon() {
         return isBoot() ? R.drawable.ic_live_boot : R.drawable.ic_live_block;
     }
@@ -322,7 +366,14 @@ public class Live {
     }
 
     public Live sync() {
-        Live item = find(getName());
+        return sync(find(getName()));
+    }
+
+    public Live sync(Map<String, Live> items) {
+        return sync(items.get(getName()));
+    }
+
+    private Live sync(Live item) {
         if (item == null) return this;
         setBoot(item.isBoot());
         setPass(item.isPass());
@@ -351,6 +402,12 @@ public class Live {
         return AppDatabase.get().getLiveDao().find(name);
     }
 
+    public static Map<String, Live> findAll() {
+        Map<String, Live> items = new HashMap<>();
+        for (Live item : AppDatabase.get().getLiveDao().findAll()) items.put(item.getName(), item);
+        return items;
+    }
+
     public void save() {
         AppDatabase.get().getLiveDao().insertOrUpdate(this);
     }
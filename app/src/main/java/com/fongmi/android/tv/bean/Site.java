@@ -24,7 +24,9 @@ import com.google.gson.annotations.SerializedName;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import okhttp3.Headers;
@@ -78,6 +80,14 @@ public class Site implements Parcelable {
     @SerializedName("timeout")
     private Integer timeout;
 
+    @Ignore
+    @SerializedName("workers")
+    private Integer workers;
+
+    @Ignore
+    @SerializedName("callTimeout")
+    private Integer callTimeout;
+
     @SerializedName("searchable")
     private Integer searchable;
 
@@ -191,6 +201,14 @@ public class Site implements Parcelable {
         return timeout == null ? Constant.TIMEOUT_PLAY : TimeUnit.SECONDS.toMillis(Math.max(timeout, 1));
     }
 
+    public long getCallTimeout() {
+        return TimeUnit.SECONDS.toMillis(callTimeout == null ? 30 : Math.max(callTimeout, 0));
+    }
+
+    public int getWorkers() {
+        return workers == null ? 1 : Math.min(Math.max(workers, 1), 8);
+    }
+
     public Integer getSearchable() {
         return searchable == null ? 1 : searchable;
     }
@@ -297,7 +315,14 @@ public class Site implements Parcelable {
     }
 
     public Site sync() {
-        Site item = find(getKey());
+        return sync(find(getKey()));
+    }
+
+    public Site sync(Map<String, Site> items) {
+        return sync(items.get(getKey()));
+    }
+
+    private Site sync(Site item) {
         if (item == null) return this;
         if (getChangeable() != 0) setChangeable(Math.max(1, item.getChangeable()));
         if (getSearchable() != 0) setSearchable(Math.max(1, item.getSearchable()));
@@ -352,6 +377,12 @@ public class Site implements Parcelable {
         return AppDatabase.get().getSiteDao().find(key);
     }
 
+    public static Map<String, Site> findAll() {
+        Map<String, Site> items = new HashMap<>();
+        for (Site item : AppDatabase.get().getSiteDao().findAll()) items.put(item.getKey(), item);
+        return items;
+    }
+
     public void save() {
         AppDatabase.get().getSiteDao().insertOrUpdate(this);
     }
@@ -381,6 +412,8 @@ public class Site implements Parcelable {
         dest.writeValue(this.type);
         dest.writeValue(this.indexs);
         dest.writeValue(this.timeout);
+        dest.writeValue(this.workers);
+        dest.writeValue(this.callTimeout);
         dest.writeValue(this.searchable);
         dest.writeValue(this.changeable);
         dest.writeStringList(this.categories);
@@ -399,6 +432,8 @@ public class Site implements Parcelable {
         this.type = (Integer) in.readValue(Integer.class.getClassLoader());
         this.indexs = (Integer) in.readValue(Integer.class.getClassLoader());
         this.timeout = (Integer) in.readValue(Integer.class.getClassLoader());
+        this.workers = (Integer) in.readValue(Integer.class.getClassLoader());
+        this.callTimeout = (Integer) in.readValue(Integer.class.getClassLoader());
         this.searchable = (Integer) in.readValue(Integer.class.getClassLoader());
         this.changeable = (Integer) in.readValue(Integer.class.getClassLoader());
         this.categories = in.createStringArrayList();
@@ -3,6 +3,7 @@ package com.fongmi.android.tv.model;
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModel;
 
+import com.fongmi.android.tv.App;
 import com.fongmi.android.tv.Constant;
 import com.fongmi.android.tv.R;
 import com.fongmi.android.tv.api.EpgParser;
@@ -15,18 +16,18 @@ import com.fongmi.android.tv.bean.Group;
 import com.fongmi.android.tv.bean.Live;
 import com.fongmi.android.tv.exception.ExtractException;
 import com.fongmi.android.tv.player.Source;
+import com.fongmi.android.tv.utils.TimeCodec;
 import com.github.catvod.net.OkHttp;
 
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
 import java.util.TimeZone;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 public class LiveViewModel extends ViewModel {
@@ -35,57 +36,110 @@ public class LiveViewModel extends ViewModel {
     private static final int EPG = 1;
     private static final int URL = 2;
     private static final int XML = 3;
+    private static final int EPG_SIZE = 64;
+    private static final long EPG_TTL = TimeUnit.MINUTES.toMillis(30);
 
-    private final List<SimpleDateFormat> formatTime;
-    private final SimpleDateFormat formatDate;
+    private final Map<String, EpgTask> epgCache;
+    private final ExecutorService fetcher;
 
     public MutableLiveData<Channel> url;
     public MutableLiveData<Boolean> xml;
     public MutableLiveData<Live> live;
+    public MutableLiveData<Live> part;
     public MutableLiveData<Epg> epg;
 
     private ExecutorService executor1;
     private ExecutorService executor2;
     private ExecutorService executor3;
     private ExecutorService executor4;
+    private volatile TimeZone timeZone;
+    private volatile int version;
 
     public LiveViewModel() {
         this.live = new MutableLiveData<>();
+        this.part = new MutableLiveData<>();
         this.epg = new MutableLiveData<>();
         this.url = new MutableLiveData<>();
         this.xml = new MutableLiveData<>();
-        this.formatTime = new ArrayList<>();
-        this.formatDate = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault());
-        this.formatTime.add(new SimpleDateFormat("yyyy-MM-ddHH:mm", Locale.getDefault()));
-        this.formatTime.add(new SimpleDateFormat("yyyy-MM-ddHH:mm:ss", Locale.getDefault()));
+        this.timeZone = TimeZone.getDefault();
+        this.fetcher = Executors.newFixedThreadPool(3);
+        this.epgCache = new LinkedHashMap<String, EpgTask>(EPG_SIZE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, EpgTask> eldest) {
+                return size() > EPG_SIZE;
+            }
+        };
     }
 
     public void getLive(Live item) {
+        int version = ++this.version;
         execute(LIVE, () -> {
-            LiveParser.start(item.recent());
+            boolean cache = LiveParser.load(item.recent());
+            if (!cache) LiveParser.start(item, part::postValue);
             setTimeZone(item);
             verify(item);
+            if (cache) App.execute(() -> refresh(item, version));
             return item;
         });
     }
 
+    private void refresh(Live item, int version) {
+        try {
+            Live result = LiveParser.refresh(item);
+            if (result == null || version != this.version) return;
+            verify(result);
+            App.post(() -> {
+                if (version != this.version) return;
+                item.getGroups().clear();
+                item.getGroups().addAll(result.getGroups());
+                live.setValue(item);
+            });
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
     public void getXml(Live item) {
-        execute(XML, () -> {
-            boolean result = false;
-            for (String url : item.getEpgXml()) if (EpgParser.start(item, url)) result = true;
-            return result;
-        });
+        execute(XML, () -> EpgParser.start(item));
     }
 
     public void getEpg(Channel item) {
-        String date = formatDate.format(new Date());
+        TimeZone zone = timeZone;
+        String date = TimeCodec.formatDate(System.currentTimeMillis(), zone);
         String url = item.getEpg().replace("{date}", date);
         execute(EPG, () -> {
-            if (url.startsWith("http") && !item.getData().equal(date)) item.setData(Epg.objectFrom(OkHttp.string(url), item.getTvgId(), formatTime));
+            Future<Epg> future = url.startsWith("http") && !item.getData().equal(date) ? fetch(url, item.getTvgId(), zone) : null;
+            prefetch(item, date, zone);
+            if (future != null) item.setData(future.get());
+            else if (!url.startsWith("http")) EpgParser.refresh(item);
             return item.getData().selected();
         });
     }
 
+    private Future<Epg> fetch(String url, String key, TimeZone zone) {
+        String id = key + "@" + url;
+        synchronized (epgCache) {
+            EpgTask task = epgCache.get(id);
+            if (task != null && task.isValid()) return task.future;
+            task = new EpgTask(fetcher.submit(() -> Epg.objectFrom(OkHttp.string(url), key, zone)));
+            epgCache.put(id, task);
+            return task.future;
+        }
+    }
+
+    private void prefetch(Channel item, String date, TimeZone zone) {
+        List<Channel> items = item.getGroup() == null ? null : item.getGroup().getChannel();
+        int index = items == null ? -1 : items.indexOf(item);
+        if (index == -1 || items.size() < 2) return;
+        prefetchOne(items.get((index + 1) % items.size()), date, zone);
+        prefetchOne(items.get((index - 1 + items.size()) % items.size()), date, zone);
+    }
+
+    private void prefetchOne(Channel item, String date, TimeZone zone) {
+        String url = item.getEpg().replace("{date}", date);
+        if (url.startsWith("http") && !item.getData().equal(date)) fetch(url, item.getTvgId(), zone);
+    }
+
     public void getUrl(Channel item) {
         execute(URL, () -> {
             item.setMsg(null);
@@ -106,9 +160,7 @@ public class LiveViewModel extends ViewModel {
 
     private void setTimeZone(Live live) {
         try {
-            TimeZone timeZone = live.getTimeZone().isEmpty() ? TimeZone.getDefault() : TimeZone.getTimeZone(live.getTimeZone());
-            for (SimpleDateFormat format : formatTime) format.setTimeZone(timeZone);
-            formatDate.setTimeZone(timeZone);
+            timeZone = live.getTimeZone().isEmpty() ? TimeZone.getDefault() : TimeZone.getTimeZone(live.getTimeZone());
         } catch (Exception ignored) {
         }
     }
@@ -168,9 +220,33 @@ public class LiveViewModel extends ViewModel {
 
     @Override
     protected void onCleared() {
+        version++;
         if (executor1 != null) executor1.shutdownNow();
         if (executor2 != null) executor2.shutdownNow();
         if (executor3 != null) executor3.shutdownNow();
         if (executor4 != null) executor4.shutdownNow();
+        fetcher.shutdownNow();
+    }
+
+    private static class EpgTask {
+
+        private final Future<Epg> future;
+        private final long time;
+
+        private EpgTask(Future<Epg> future) {
+            this.future = future;
+            this.time = System.currentTimeMillis();
+        }
+
+        private boolean isValid() {
+            if (!future.isDone()) return true;
+            if (System.currentTimeMillis() - time > EPG_TTL) return false;
+            try {
+                future.get();
+                return true;
+            } catch (Exception e) {
+                return false;
+            }
+        }
     }
 }
@@ -11,7 +11,9 @@ import com.orhanobut.logger.Logger;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -212,6 +214,16 @@ public class FlowLogger {
             String.format("配置解析成功，站点数: %d，解析器数: %d", siteCount, parseCount));
     }
 
+    /**
+     * 记录点播配置各阶段耗时
+     */
+    public static void logVodConfigTiming(String flowId, Map<String, Long> stages, long total, long coldStart) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> entry : stages.entrySet()) sb.append(String.format(Locale.ROOT, " %s=%dms", entry.getKey(), entry.getValue()));
+        String cold = coldStart < 0 ? "" : String.format(Locale.ROOT, "，冷启动耗时: %dms", coldStart);
+        logVod(flowId, VodStage.CONFIG_PARSE, Level.INFO, String.format(Locale.ROOT, "配置加载耗时: %dms%s，阶段:%s", total, cold, sb));
+    }
+
     /**
      * 记录点播站点初始化
      */
@@ -853,6 +865,15 @@ public class FlowLogger {
         logLive(flowId, LiveStage.EPG_PARSE, level, message);
     }
 
+    /**
+     * 记录EPG频道匹配统计
+     */
+    public static void logLiveEpgMatch(String flowId, String liveName, int total, int matched, List<String> unmatched) {
+        String sample = unmatched.size() > 10 ? unmatched.subList(0, 10) + "..." : unmatched.toString();
+        String message = String.format("EPG频道匹配: %s，总数: %d，已匹配: %d，未匹配: %d %s", liveName, total, matched, total - matched, unmatched.isEmpty() ? "" : sample);
+        logLive(flowId, LiveStage.EPG_PARSE, Level.DEBUG, message);
+    }
+
     /**
      * 记录频道选择
      */
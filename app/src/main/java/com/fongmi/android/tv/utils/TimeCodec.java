@@ -0,0 +1,167 @@
+package com.fongmi.android.tv.utils;
+
+import java.util.TimeZone;
+
+/**
+ * Stateless date/time codec for the EPG, catchup and live timestamps.
+ * Parses the digit layouts used by XMLTV and the json EPG ("yyyyMMddHHmmss Z", "yyyy-MM-ddHH:mm[:ss]", ...)
+ * straight into epoch millis, so it is safe to share across threads and does not allocate per call.
+ */
+public class TimeCodec {
+
+    private static final long DAY = 86400000L;
+
+    public static final int YEAR = 0;
+    public static final int MONTH = 1;
+    public static final int DAY_OF_MONTH = 2;
+    public static final int HOUR = 3;
+    public static final int MINUTE = 4;
+    public static final int SECOND = 5;
+    public static final int MILLISECOND = 6;
+
+    /**
+     * Reads year, month, day, hour, minute and an optional second, ignoring any separators between them,
+     * followed by an optional "+HHmm", "+HH:mm" or "Z" offset. Without an offset the time is taken in the given zone.
+     *
+     * @return epoch millis, or 0 when the text does not hold a date.
+     */
+    public static long parse(CharSequence src, TimeZone zone) {
+        if (src == null) return 0;
+        int length = src.length();
+        int i = skip(src, 0);
+        int year = number(src, i, 4);
+        int month = number(src, i = skip(src, end(src, i, 4)), 2);
+        int day = number(src, i = skip(src, end(src, i, 2)), 2);
+        int hour = number(src, i = skip(src, end(src, i, 2)), 2);
+        int minute = number(src, i = skip(src, end(src, i, 2)), 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || minute < 0) return 0;
+        i = end(src, i, 2);
+        if (i < length && src.charAt(i) == ':') i++;
+        int second = Math.max(number(src, i, 2), 0);
+        i = end(src, i, 2);
+        while (i < length && src.charAt(i) == ' ') i++;
+        long local = days(year, month, day) * DAY + hour * 3600000L + minute * 60000L + second * 1000L;
+        if (i < length && (src.charAt(i) == 'Z' || src.charAt(i) == 'z')) return local;
+        if (i < length && (src.charAt(i) == '+' || src.charAt(i) == '-')) {
+            int sign = src.charAt(i) == '-' ? -1 : 1;
+            int offsetHour = number(src, ++i, 2);
+            i = end(src, i, 2);
+            if (i < length && src.charAt(i) == ':') i++;
+            int offsetMinute = Math.max(number(src, i, 2), 0);
+            if (offsetHour >= 0) return local - sign * (offsetHour * 3600000L + offsetMinute * 60000L);
+        }
+        return local - zone.getOffset(local - zone.getRawOffset());
+    }
+
+    /**
+     * Splits the time into calendar fields of the given zone, indexed by {@link #YEAR} to {@link #MILLISECOND}.
+     */
+    public static void fields(long millis, TimeZone zone, int[] out) {
+        long local = millis + zone.getOffset(millis);
+        long days = Math.floorDiv(local, DAY);
+        int time = (int) Math.floorMod(local, DAY);
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        int doe = (int) (z - era * 146097);
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        out[YEAR] = (int) (yoe + era * 400) + (month <= 2 ? 1 : 0);
+        out[MONTH] = month;
+        out[DAY_OF_MONTH] = doy - (153 * mp + 2) / 5 + 1;
+        out[HOUR] = time / 3600000;
+        out[MINUTE] = time / 60000 % 60;
+        out[SECOND] = time / 1000 % 60;
+        out[MILLISECOND] = time % 1000;
+    }
+
+    /**
+     * Formats as "HH:mm".
+     */
+    public static String formatTime(long millis, TimeZone zone) {
+        int local = (int) Math.floorMod(millis + zone.getOffset(millis), DAY) / 60000;
+        char[] chars = new char[5];
+        pad(chars, 0, local / 60, 2);
+        chars[2] = ':';
+        pad(chars, 3, local % 60, 2);
+        return new String(chars);
+    }
+
+    /**
+     * Formats as "yyyy-MM-dd".
+     */
+    public static String formatDate(long millis, TimeZone zone) {
+        int[] fields = new int[7];
+        fields(millis, zone, fields);
+        char[] chars = new char[10];
+        pad(chars, 0, fields[YEAR], 4);
+        chars[4] = '-';
+        pad(chars, 5, fields[MONTH], 2);
+        chars[7] = '-';
+        pad(chars, 8, fields[DAY_OF_MONTH], 2);
+        return new String(chars);
+    }
+
+    /**
+     * Returns the start of the day that contains the time, in the given zone.
+     */
+    public static long startOfDay(long millis, TimeZone zone) {
+        long local = millis + zone.getOffset(millis);
+        local -= Math.floorMod(local, DAY);
+        return local - zone.getOffset(local - zone.getRawOffset());
+    }
+
+    /**
+     * Appends the value left-padded with zeros to the given width.
+     */
+    public static void append(StringBuilder builder, int value, int width) {
+        for (int div = pow(width - 1); div > 1 && value < div; div /= 10) builder.append('0');
+        builder.append(value);
+    }
+
+    private static long days(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        int era = Math.floorDiv(year, 400);
+        int yoe = year - era * 400;
+        int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097L + doe - 719468;
+    }
+
+    private static int skip(CharSequence src, int index) {
+        while (index < src.length() && isSeparator(src.charAt(index))) index++;
+        return index;
+    }
+
+    private static int end(CharSequence src, int index, int width) {
+        for (int count = 0; index < src.length() && count < width && isDigit(src.charAt(index)); count++) index++;
+        return index;
+    }
+
+    private static int number(CharSequence src, int index, int width) {
+        int end = end(src, index, width);
+        if (end == index) return -1;
+        int value = 0;
+        for (; index < end; index++) value = value * 10 + src.charAt(index) - '0';
+        return value;
+    }
+
+    private static void pad(char[] chars, int offset, int value, int width) {
+        for (int i = offset + width - 1; i >= offset; i--, value /= 10) chars[i] = (char) ('0' + value % 10);
+    }
+
+    private static int pow(int exp) {
+        int value = 1;
+        for (int i = 0; i < exp; i++) value *= 10;
+        return value;
+    }
+
+    private static boolean isSeparator(char c) {
+        return !isDigit(c) && c != '+' && c != 'Z' && c != 'z';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -104,7 +104,7 @@ public class HomeActivity extends BaseActivity implements NavigationBarView.OnIt
     private void initConfig() {
         WallConfig.get().init();
         LiveConfig.get().init().load();
-        VodConfig.get().init().load(getCallback());
+        VodConfig.get().init().load(getCallback(), true);
     }
 
     private Callback getCallback() {
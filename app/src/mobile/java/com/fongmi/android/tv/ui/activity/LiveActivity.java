@@ -223,6 +223,7 @@ public class LiveActivity extends BaseActivity implements CustomKeyDownLive.List
         mViewModel.url.observeForever(mObserveUrl);
         mViewModel.xml.observe(this, this::setEpg);
         mViewModel.epg.observeForever(mObserveEpg);
+        mViewModel.part.observe(this, this::setPart);
         mViewModel.live.observe(this, live -> {
             mViewModel.getXml(live);
             hideProgress();
@@ -259,6 +260,14 @@ public class LiveActivity extends BaseActivity implements CustomKeyDownLive.List
         showProgress();
     }
 
+    private void setPart(Live live) {
+        List<Group> items = new ArrayList<>();
+        for (Group group : live.getGroups()) if (!group.isHidden()) items.add(group);
+        mGroupAdapter.addAll(items);
+        hideProgress();
+        setWidth(live);
+    }
+
     private void setGroup(Live live) {
         List<Group> items = new ArrayList<>();
         for (Group group : live.getGroups()) (group.isHidden() ? mHides : items).add(group);
@@ -72,6 +72,10 @@ public class Path {
         return mkdir(new File(cache() + File.separator + "epg"));
     }
 
+    public static File live() {
+        return mkdir(new File(cache() + File.separator + "live"));
+    }
+
     public static File jpa() {
         return mkdir(new File(cache() + File.separator + "jpa"));
     }
@@ -112,6 +116,10 @@ public class Path {
         return new File(jar(), Util.md5(name).concat(".jar"));
     }
 
+    public static File live(String name) {
+        return new File(live(), Util.md5(name).concat(".bin"));
+    }
+
     public static File thunder(String name) {
         return mkdir(new File(thunder(), name));
     }
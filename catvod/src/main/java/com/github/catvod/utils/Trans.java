@@ -24,7 +24,7 @@ public class Trans {
         s2t = new HashMap<>();
         t2s = new HashMap<>();
         trans = "TW".equals(Locale.getDefault().getCountry());
-        if (trans) init();
+        init();
     }
 
     private void init() {
@@ -2,6 +2,12 @@ let req = (url, options) => http(url, Object.assign({
     async: false
 }, options));
 
+function _bytes(buffer) {
+    return Array.from(new Int8Array(buffer))
+}
+
+let reqAll = (requests) => _httpAll(requests.map(item => typeof item === 'string' ? {url: item} : item));
+
 function http(url, options = {}) {
     if (options?.async === false) return _http(url, options)
     return new Promise(resolve => _http(url, Object.assign({
@@ -3,72 +3,120 @@ package com.fongmi.quickjs.crawler;
 import android.content.Context;
 
 import com.fongmi.quickjs.bean.Res;
-import com.fongmi.quickjs.method.Console;
-import com.fongmi.quickjs.method.Global;
-import com.fongmi.quickjs.method.Local;
-import com.fongmi.quickjs.utils.Async;
 import com.fongmi.quickjs.utils.JSUtil;
-import com.fongmi.quickjs.utils.Module;
-import com.github.catvod.utils.Asset;
 import com.github.catvod.utils.Json;
-import com.github.catvod.utils.UriUtil;
-import com.github.catvod.utils.Util;
-import com.whl.quickjs.wrapper.JSArray;
-import com.whl.quickjs.wrapper.JSObject;
-import com.whl.quickjs.wrapper.QuickJSContext;
 
-import org.json.JSONArray;
-
-import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import dalvik.system.DexClassLoader;
-import java9.util.concurrent.CompletableFuture;
 
 public class Spider extends com.github.catvod.crawler.Spider {
 
-    private final ExecutorService executor;
+    private static final int QUEUE = 32;
+    private static final long TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+    private static final ExecutorService RECYCLER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "js-recycle");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<String, AtomicInteger> timeouts;
+    private final List<Worker> workers;
+    private final Semaphore permits;
     private final DexClassLoader dex;
-    private QuickJSContext ctx;
-    private JSObject jsObject;
     private final String key;
     private final String api;
-    private boolean cat;
+    private String extend;
+    private volatile boolean destroyed;
     private String flowId;
+    private long timeout;
 
     public Spider(String key, String api, DexClassLoader dex) throws Exception {
-        this.executor = Executors.newSingleThreadExecutor();
+        this(key, api, dex, 1);
+    }
+
+    /**
+     * @param size number of isolated contexts; calls go to the least busy one, and at most size * QUEUE may wait.
+     */
+    public Spider(String key, String api, DexClassLoader dex, int size) throws Exception {
+        this.timeouts = new ConcurrentHashMap<>();
+        this.workers = new CopyOnWriteArrayList<>();
+        this.permits = new Semaphore(Math.max(size, 1) * QUEUE);
+        this.timeout = TIMEOUT;
         this.key = key;
         this.api = api;
         this.dex = dex;
-        initializeJS();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < Math.max(size, 1); i++) workers.add(Worker.create());
+        for (Worker worker : workers) futures.add(worker.load(api, dex));
+        for (Future<?> future : futures) future.get();
     }
 
     public void setFlowId(String flowId) {
         this.flowId = flowId;
     }
 
-    private void submit(Runnable runnable) {
-        executor.submit(runnable);
+    /**
+     * Deadline of a single call in milliseconds, 0 to wait forever.
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Number of calls that ran past the deadline, by method.
+     */
+    public Map<String, Integer> getTimeouts() {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Map.Entry<String, AtomicInteger> entry : timeouts.entrySet()) counts.put(entry.getKey(), entry.getValue().get());
+        return counts;
+    }
+
+    private Worker acquire() throws InterruptedException {
+        permits.acquire();
+        Worker worker = workers.get(0);
+        for (Worker item : workers) if (worker.isAborted() || (!item.isAborted() && item.pending.get() < worker.pending.get())) worker = item;
+        worker.pending.incrementAndGet();
+        return worker;
     }
 
-    private <T> Future<T> submitCallable(Callable<T> callable) {
-        return executor.submit(callable);
+    private void release(Worker worker) {
+        worker.pending.decrementAndGet();
+        permits.release();
     }
 
     private Object call(String func, Object... args) throws Exception {
+        return call(func, args.length, ctx -> args);
+    }
+
+    private Object call(String func, int count, Worker.Args args) throws Exception {
+        Worker worker = acquire();
+        try {
+            return run(worker, func, count, args);
+        } finally {
+            release(worker);
+        }
+    }
+
+    private Object run(Worker worker, String func, int count, Worker.Args args) throws Exception {
         long startTime = System.currentTimeMillis();
 
         if (flowId != null) {
             try {
-                String argsStr = args.length > 0 ? String.valueOf(args.length) + "个参数" : "无参数";
+                String argsStr = count > 0 ? String.valueOf(count) + "个参数" : "无参数";
                 android.util.Log.i("VOD_FLOW", String.format("[%s] [FlowID:%s] [JS_FUNCTION_CALL] 调用JavaScript函数 [%s] %s(%s)",
                     new java.text.SimpleDateFormat("HH:mm:ss.SSS").format(new java.util.Date()),
                     flowId, key, func, argsStr));
@@ -78,7 +126,7 @@ public class Spider extends com.github.catvod.crawler.Spider {
         }
 
         try {
-            Object result = CompletableFuture.supplyAsync(() -> Async.run(jsObject, func, args), executor).join().get();
+            Object result = worker.call(func, args, timeout);
 
             if (flowId != null) {
                 try {
@@ -93,6 +141,9 @@ public class Spider extends com.github.catvod.crawler.Spider {
             }
 
             return result;
+        } catch (TimeoutException e) {
+            timeout(worker, func);
+            throw e;
         } catch (Exception e) {
             if (flowId != null) {
                 try {
@@ -107,10 +158,44 @@ public class Spider extends com.github.catvod.crawler.Spider {
         }
     }
 
+    private void timeout(Worker worker, String func) {
+        int count = timeouts.computeIfAbsent(func, k -> new AtomicInteger()).incrementAndGet();
+        android.util.Log.e("VOD_FLOW", String.format("[%s] [FlowID:%s] [JS_FUNCTION_TIMEOUT] JavaScript函数调用超时 [%s] %s()，超时: %dms，累计: %d次",
+            new java.text.SimpleDateFormat("HH:mm:ss.SSS").format(new java.util.Date()),
+            flowId, key, func, timeout, count));
+        if (!"init".equals(func) && !"destroy".equals(func)) recycle(worker);
+    }
+
+    /**
+     * Abandons a worker stuck past its deadline: its thread is interrupted right away, and a fresh context
+     * is built in the background to take its place, so the timed-out caller is not held up by it.
+     */
+    private void recycle(Worker worker) {
+        if (destroyed || !workers.contains(worker) || !worker.abort()) return;
+        RECYCLER.execute(() -> {
+            int index = workers.indexOf(worker);
+            if (destroyed || index == -1) return;
+            try {
+                Worker item = Worker.create();
+                item.load(api, dex).get();
+                workers.set(index, item);
+                init(item);
+                if (destroyed) item.destroy();
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    private void init(Worker worker) throws Exception {
+        if (worker.isCat()) run(worker, "init", 1, ctx -> new Object[]{worker.cfg(key, extend)});
+        else run(worker, "init", 1, ctx -> new Object[]{Json.isObj(extend) ? ctx.parse(extend) : extend});
+    }
+
     @Override
     public void init(Context context, String extend) throws Exception {
-        if (cat) call("init", submitCallable(() -> cfg(extend)).get());
-        else call("init", Json.isObj(extend) ? ctx.parse(extend) : extend);
+        this.extend = extend;
+        for (Worker worker : workers) init(worker);
     }
 
     @Override
@@ -125,8 +210,7 @@ public class Spider extends com.github.catvod.crawler.Spider {
 
     @Override
     public String categoryContent(String tid, String pg, boolean filter, HashMap<String, String> extend) throws Exception {
-        JSObject obj = submitCallable(() -> JSUtil.toObject(ctx, extend)).get();
-        return (String) call("category", tid, pg, filter, obj);
+        return (String) call("category", 4, ctx -> new Object[]{tid, pg, filter, JSUtil.toObject(ctx, extend)});
     }
 
     @Override
@@ -146,8 +230,7 @@ public class Spider extends com.github.catvod.crawler.Spider {
 
     @Override
     public String playerContent(String flag, String id, List<String> vipFlags) throws Exception {
-        JSArray array = submitCallable(() -> JSUtil.toArray(ctx, vipFlags)).get();
-        return (String) call("play", flag, id, array);
+        return (String) call("play", 3, ctx -> new Object[]{flag, id, JSUtil.toArray(ctx, vipFlags)});
     }
 
     @Override
@@ -168,7 +251,15 @@ public class Spider extends com.github.catvod.crawler.Spider {
     @Override
     public Object[] proxyLocal(Map<String, String> params) throws Exception {
         if ("catvod".equals(params.get("from"))) return proxy2(params);
-        else return submitCallable(() -> proxy1(params)).get();
+        Worker worker = acquire();
+        try {
+            return worker.submit(() -> worker.proxy(params), timeout);
+        } catch (TimeoutException e) {
+            timeout(worker, "proxy");
+            throw e;
+        } finally {
+            release(worker);
+        }
     }
 
     @Override
@@ -178,93 +269,21 @@ public class Spider extends com.github.catvod.crawler.Spider {
 
     @Override
     public void destroy() {
-        try {
-            call("destroy");
-        } catch (Throwable e) {
-            e.printStackTrace();
-        }
-        submit(() -> {
-            executor.shutdownNow();
-            jsObject.release();
-            ctx.destroy();
-        });
-    }
-
-    private void initializeJS() throws Exception {
-        submitCallable(() -> {
-            createCtx();
-            createFun();
-            createObj();
-            return null;
-        }).get();
-    }
-
-    private void createCtx() {
-        ctx = QuickJSContext.create();
-        ctx.setConsole(new Console());
-        ctx.evaluate(Asset.read("js/lib/http.js"));
-        ctx.getGlobalObject().setProperty("local", Local.class);
-        ctx.setModuleLoader(new QuickJSContext.BytecodeModuleLoader() {
-            @Override
-            public String moduleNormalizeName(String baseModuleName, String moduleName) {
-                return UriUtil.resolve(baseModuleName, moduleName);
-            }
-
-            @Override
-            public byte[] getModuleBytecode(String moduleName) {
-                return ctx.compileModule(Module.get().fetch(moduleName), moduleName);
+        destroyed = true;
+        for (Worker worker : workers) {
+            try {
+                run(worker, "destroy", 0, ctx -> new Object[0]);
+            } catch (Throwable e) {
+                e.printStackTrace();
             }
-        });
-    }
-
-    private void createFun() {
-        try {
-            Global.create(ctx, executor);
-            Class<?> clz = dex.loadClass("com.github.catvod.js.Function");
-            clz.getDeclaredConstructor(QuickJSContext.class).newInstance(ctx);
-        } catch (Throwable e) {
-            e.printStackTrace();
+            worker.destroy();
         }
     }
 
-    private void createObj() {
-        String spider = "__JS_SPIDER__";
-        String global = "globalThis." + spider;
-        String content = Module.get().fetch(api);
-        cat = content.contains("__jsEvalReturn");
-        ctx.evaluateModule(content.replace(spider, global), api);
-        ctx.evaluateModule(String.format(Asset.read("js/lib/spider.js"), api));
-        jsObject = (JSObject) ctx.getProperty(ctx.getGlobalObject(), spider);
-    }
-
-    private JSObject cfg(String ext) {
-        JSObject cfg = ctx.createNewJSObject();
-        cfg.setProperty("stype", 3);
-        cfg.setProperty("skey", key);
-        if (!Json.isObj(ext)) cfg.setProperty("ext", ext);
-        else cfg.setProperty("ext", (JSObject) ctx.parse(ext));
-        return cfg;
-    }
-
-    private Object[] proxy1(Map<String, String> params) throws Exception {
-        JSObject object = JSUtil.toObject(ctx, params);
-        JSONArray array = new JSONArray(((JSArray) jsObject.getJSFunction("proxy").call(object)).stringify());
-        Map<String, String> headers = array.length() > 3 ? Json.toMap(array.optString(3)) : null;
-        boolean base64 = array.length() > 4 && array.optInt(4) == 1;
-        Object[] result = new Object[4];
-        result[0] = array.optInt(0);
-        result[1] = array.optString(1);
-        result[2] = getStream(array.opt(2), base64);
-        result[3] = headers;
-        return result;
-    }
-
     private Object[] proxy2(Map<String, String> params) throws Exception {
         String url = params.get("url");
         String header = params.get("header");
-        JSArray array = submitCallable(() -> JSUtil.toArray(ctx, Arrays.asList(url.split("/")))).get();
-        Object object = submitCallable(() -> ctx.parse(header)).get();
-        String json = (String) call("proxy", array, object);
+        String json = (String) call("proxy", 2, ctx -> new Object[]{JSUtil.toArray(ctx, Arrays.asList(url.split("/"))), ctx.parse(header)});
         Res res = Res.objectFrom(json);
         Object[] result = new Object[3];
         result[0] = res.getCode();
@@ -272,14 +291,4 @@ public class Spider extends com.github.catvod.crawler.Spider {
         result[2] = res.getStream();
         return result;
     }
-
-    private ByteArrayInputStream getStream(Object o, boolean base64) {
-        if (o instanceof byte[]) {
-            return new ByteArrayInputStream((byte[]) o);
-        } else {
-            String content = o.toString();
-            if (base64 && content.contains("base64,")) content = content.split("base64,")[1];
-            return new ByteArrayInputStream(base64 ? Util.decode(content) : content.getBytes());
-        }
-    }
 }
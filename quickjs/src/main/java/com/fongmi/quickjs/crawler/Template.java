@@ -0,0 +1,95 @@
+package com.fongmi.quickjs.crawler;
+
+import com.fongmi.quickjs.method.Console;
+import com.fongmi.quickjs.method.Global;
+import com.fongmi.quickjs.method.Local;
+import com.fongmi.quickjs.utils.Bytecode;
+import com.fongmi.quickjs.utils.Module;
+import com.github.catvod.utils.Asset;
+import com.github.catvod.utils.UriUtil;
+import com.whl.quickjs.wrapper.QuickJSContext;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A spider context prepared ahead of time on its own thread, with the console, local, global bindings,
+ * module loader and http.js already in place. A few are kept warm so a new spider only runs its site script.
+ */
+class Template {
+
+    private static final int SIZE = 2;
+    private static final ConcurrentLinkedQueue<Template> ready = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger count = new AtomicInteger();
+    private static volatile String http;
+
+    final ExecutorService executor;
+    QuickJSContext ctx;
+    Global global;
+    Thread thread;
+
+    static Template take() throws Exception {
+        Template template = ready.poll();
+        if (template != null) count.decrementAndGet();
+        if (template == null) template = create();
+        fill();
+        return template;
+    }
+
+    private static Template create() throws Exception {
+        Template template = new Template();
+        template.executor.submit(template::init).get();
+        return template;
+    }
+
+    private static void fill() {
+        while (count.get() < SIZE) {
+            if (count.incrementAndGet() > SIZE) {
+                count.decrementAndGet();
+                return;
+            }
+            Template template = new Template();
+            template.executor.submit(() -> {
+                try {
+                    template.init();
+                    ready.offer(template);
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                    count.decrementAndGet();
+                    template.executor.shutdownNow();
+                }
+            });
+        }
+    }
+
+    private static String http() {
+        if (http == null) http = Asset.read("js/lib/http.js");
+        return http;
+    }
+
+    private Template() {
+        this.executor = Executors.newSingleThreadExecutor();
+    }
+
+    private void init() {
+        thread = Thread.currentThread();
+        ctx = QuickJSContext.create();
+        ctx.setConsole(new Console());
+        ctx.execute(Bytecode.get().script(ctx, "http.js", http()));
+        ctx.getGlobalObject().setProperty("local", Local.class);
+        ctx.setModuleLoader(new QuickJSContext.BytecodeModuleLoader() {
+            @Override
+            public String moduleNormalizeName(String baseModuleName, String moduleName) {
+                return UriUtil.resolve(baseModuleName, moduleName);
+            }
+
+            @Override
+            public byte[] getModuleBytecode(String moduleName) {
+                return Bytecode.get().module(ctx, moduleName, Module.get().fetch(moduleName));
+            }
+        });
+        global = Global.create(ctx, executor);
+    }
+}
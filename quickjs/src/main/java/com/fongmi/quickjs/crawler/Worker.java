@@ -0,0 +1,216 @@
+package com.fongmi.quickjs.crawler;
+
+import com.fongmi.quickjs.bean.Req;
+import com.fongmi.quickjs.method.Global;
+import com.fongmi.quickjs.utils.Async;
+import com.fongmi.quickjs.utils.Bytecode;
+import com.fongmi.quickjs.utils.Connect;
+import com.fongmi.quickjs.utils.JSUtil;
+import com.fongmi.quickjs.utils.Module;
+import com.github.catvod.utils.Asset;
+import com.github.catvod.utils.Json;
+import com.github.catvod.utils.Util;
+import com.google.gson.JsonElement;
+import com.whl.quickjs.wrapper.JSArray;
+import com.whl.quickjs.wrapper.JSFunction;
+import com.whl.quickjs.wrapper.JSObject;
+import com.whl.quickjs.wrapper.QuickJSContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dalvik.system.DexClassLoader;
+import java9.util.concurrent.CompletableFuture;
+import okhttp3.Response;
+
+/**
+ * One isolated context of a JS spider. Everything touching the context runs on its own thread, in order.
+ */
+class Worker {
+
+    final AtomicInteger pending;
+    private final ExecutorService executor;
+    private final QuickJSContext ctx;
+    private final Global global;
+    private final Thread thread;
+    private volatile boolean aborted;
+    private JSObject jsObject;
+    private boolean cat;
+
+    interface Args {
+
+        Object[] get(QuickJSContext ctx);
+    }
+
+    static Worker create() throws Exception {
+        return new Worker(Template.take());
+    }
+
+    private Worker(Template template) {
+        this.pending = new AtomicInteger();
+        this.executor = template.executor;
+        this.global = template.global;
+        this.thread = template.thread;
+        this.ctx = template.ctx;
+    }
+
+    Future<?> load(String api, DexClassLoader dex) {
+        return executor.submit(() -> {
+            createFun(dex);
+            createObj(api);
+            return null;
+        });
+    }
+
+    boolean isCat() {
+        return cat;
+    }
+
+    Object call(String func, Args args, long timeout) throws Exception {
+        CompletableFuture<Object> future = CompletableFuture.supplyAsync(() -> {
+            if (aborted) throw new CancellationException();
+            return Async.run(jsObject, func, args.get(ctx));
+        }, executor).thenCompose(result -> result);
+        return timeout > 0 ? future.get(timeout, TimeUnit.MILLISECONDS) : future.get();
+    }
+
+    <T> T submit(Callable<T> callable, long timeout) throws Exception {
+        Future<T> future = executor.submit(() -> {
+            if (aborted) throw new CancellationException();
+            return callable.call();
+        });
+        return timeout > 0 ? future.get(timeout, TimeUnit.MILLISECONDS) : future.get();
+    }
+
+    boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Gives up on a worker past its deadline. Calls still queued are cancelled, the thread is interrupted,
+     * and the context is released on that thread once the stuck call returns. A script that never returns
+     * keeps its thread and context for the life of the process.
+     *
+     * @return false if the worker was already aborted.
+     */
+    synchronized boolean abort() {
+        if (aborted) return false;
+        aborted = true;
+        try {
+            executor.execute(this::release);
+        } catch (RejectedExecutionException ignored) {
+        }
+        executor.shutdown();
+        if (thread != null) thread.interrupt();
+        return true;
+    }
+
+    void destroy() {
+        try {
+            executor.execute(() -> {
+                executor.shutdownNow();
+                release();
+            });
+        } catch (RejectedExecutionException ignored) {
+        }
+    }
+
+    private void release() {
+        if (jsObject != null) jsObject.release();
+        global.release();
+        ctx.destroy();
+    }
+
+    JSObject cfg(String key, String ext) {
+        JSObject cfg = ctx.createNewJSObject();
+        cfg.setProperty("stype", 3);
+        cfg.setProperty("skey", key);
+        if (!Json.isObj(ext)) cfg.setProperty("ext", ext);
+        else cfg.setProperty("ext", (JSObject) ctx.parse(ext));
+        return cfg;
+    }
+
+    /**
+     * Reads the proxy result element by element, so an ArrayBuffer body arrives as the byte[] itself,
+     * and a {url, headers, ...} body is streamed from the network instead of being materialized.
+     * Any other object body is sent as its JSON.
+     */
+    Object[] proxy(Map<String, String> params) throws Exception {
+        JSObject object = JSUtil.toObject(ctx, params);
+        JSFunction function = jsObject.getJSFunction("proxy");
+        JSArray array = (JSArray) function.call(object);
+        int length = array.length();
+        Object body = length > 2 ? array.get(2) : "";
+        Object header = length > 3 ? array.get(3) : null;
+        try {
+            Object[] result = new Object[4];
+            result[0] = length > 0 ? getInt(array.get(0)) : 0;
+            result[1] = length > 1 ? String.valueOf(array.get(1)) : "";
+            result[2] = getStream(body, length > 4 && getInt(array.get(4)) == 1);
+            result[3] = header == null ? null : Json.toMap(header instanceof JSObject ? ((JSObject) header).stringify() : header.toString());
+            return result;
+        } finally {
+            if (body instanceof JSObject) ((JSObject) body).release();
+            if (header instanceof JSObject) ((JSObject) header).release();
+            function.release();
+            object.release();
+            array.release();
+        }
+    }
+
+    private void createFun(DexClassLoader dex) {
+        try {
+            Class<?> clz = dex.loadClass("com.github.catvod.js.Function");
+            clz.getDeclaredConstructor(QuickJSContext.class).newInstance(ctx);
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void createObj(String api) {
+        String spider = "__JS_SPIDER__";
+        String global = "globalThis." + spider;
+        String content = Module.get().fetch(api);
+        cat = content.contains("__jsEvalReturn");
+        ctx.execute(Bytecode.get().module(ctx, api, content.replace(spider, global)));
+        ctx.evaluateModule(String.format(Asset.read("js/lib/spider.js"), api));
+        jsObject = (JSObject) ctx.getProperty(ctx.getGlobalObject(), spider);
+    }
+
+    private int getInt(Object o) {
+        if (o instanceof Number) return ((Number) o).intValue();
+        try {
+            return Integer.parseInt(String.valueOf(o));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private InputStream getStream(Object o, boolean base64) throws IOException {
+        if (o instanceof byte[]) return new ByteArrayInputStream((byte[]) o);
+        String content = o instanceof JSObject ? ((JSObject) o).stringify() : o.toString();
+        String url = o instanceof JSObject && !(o instanceof JSArray) ? getUrl(content) : "";
+        if (!url.isEmpty()) {
+            Response res = Connect.to(url, Req.objectFrom(content)).execute();
+            if (res.isSuccessful()) return res.body().byteStream();
+            res.close();
+            throw new IOException("HTTP " + res.code() + " " + url);
+        }
+        if (base64 && content.contains("base64,")) content = content.split("base64,")[1];
+        return new ByteArrayInputStream(base64 ? Util.decode(content) : content.getBytes());
+    }
+
+    private String getUrl(String json) {
+        JsonElement element = Json.parse(json);
+        return element.isJsonObject() ? Json.safeString(element.getAsJsonObject(), "url") : "";
+    }
+}
@@ -6,10 +6,15 @@ import androidx.annotation.NonNull;
 import com.fongmi.quickjs.bean.Req;
 import com.fongmi.quickjs.utils.Connect;
 import com.fongmi.quickjs.utils.Crypto;
+import com.fongmi.quickjs.utils.Loop;
 import com.github.catvod.Proxy;
+import com.github.catvod.utils.Json;
 import com.github.catvod.utils.Trans;
 import com.github.catvod.utils.UriUtil;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.orhanobut.logger.Logger;
+import com.whl.quickjs.wrapper.JSArray;
 import com.whl.quickjs.wrapper.JSFunction;
 import com.whl.quickjs.wrapper.JSMethod;
 import com.whl.quickjs.wrapper.JSObject;
@@ -18,9 +23,15 @@ import com.whl.quickjs.wrapper.QuickJSContext;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.net.URLEncoder;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import okhttp3.Call;
 import okhttp3.Callback;
@@ -28,24 +39,31 @@ import okhttp3.Response;
 
 public class Global {
 
-    private final ExecutorService executor;
+    private static final List<Method> METHODS = methods();
+
+    private final Set<Timer> timers;
     private final QuickJSContext ctx;
-    private final Timer timer;
+    private final Loop loop;
 
     public static Global create(QuickJSContext ctx, ExecutorService executor) {
         return new Global(ctx, executor);
     }
 
     private Global(QuickJSContext ctx, ExecutorService executor) {
-        this.executor = executor;
-        this.timer = new Timer();
+        this.timers = new HashSet<>();
+        this.loop = new Loop(executor);
         this.ctx = ctx;
         setProperty();
     }
 
+    private static List<Method> methods() {
+        List<Method> methods = new ArrayList<>();
+        for (Method method : Global.class.getMethods()) if (method.isAnnotationPresent(JSMethod.class)) methods.add(method);
+        return methods;
+    }
+
     private void setProperty() {
-        for (Method method : getClass().getMethods()) {
-            if (!method.isAnnotationPresent(JSMethod.class)) continue;
+        for (Method method : METHODS) {
             ctx.getGlobalObject().setProperty(method.getName(), args -> {
                 try {
                     return method.invoke(this, args);
@@ -56,10 +74,6 @@ public class Global {
         }
     }
 
-    private void submit(Runnable runnable) {
-        if (!executor.isShutdown()) executor.submit(runnable);
-    }
-
     @Keep
     @JSMethod
     public String s2t(String text) {
@@ -90,14 +104,27 @@ public class Global {
         return getProxy(!dynamic) + String.format("&from=catvod&siteType=%s&siteKey=%s&header=%s&url=%s", siteType, siteKey, URLEncoder.encode(headers.stringify()), URLEncoder.encode(url));
     }
 
+    /**
+     * Timers are only touched on the context thread. Each one holds its function until it fires or the context
+     * is released, whichever comes first.
+     */
     @Keep
     @JSMethod
     public Object setTimeout(JSFunction func, Integer delay) {
-        func.hold();
-        schedule(func, delay);
+        Timer timer = new Timer(func);
+        timers.add(timer);
+        timer.future = loop.postDelayed(timer, delay == null ? 0 : delay);
         return null;
     }
 
+    /**
+     * Cancels the pending timers and lets go of their functions. Runs on the context thread, before the context is destroyed.
+     */
+    public void release() {
+        for (Timer timer : timers) timer.cancel();
+        timers.clear();
+    }
+
     @Keep
     @JSMethod
     public JSObject _http(String url, JSObject options) {
@@ -120,6 +147,52 @@ public class Global {
         }
     }
 
+    /**
+     * Sends every request at once through the shared OkHttp dispatcher, which caps concurrent calls per host,
+     * and returns the responses in request order once all of them are done. Entries that are neither a url nor
+     * an options object come back as errors, and so do calls still running after the longest request timeout.
+     */
+    @Keep
+    @JSMethod
+    public JSArray _httpAll(JSArray items) {
+        JsonArray array = Json.parse(items.stringify()).getAsJsonArray();
+        Req[] reqs = new Req[array.size()];
+        Response[] responses = new Response[array.size()];
+        AtomicBoolean done = new AtomicBoolean();
+        List<Call> calls = new ArrayList<>();
+        CountDownLatch latch = new CountDownLatch(array.size());
+        long timeout = 0;
+        for (int i = 0; i < array.size(); i++) {
+            JsonElement item = array.get(i);
+            boolean object = item.isJsonObject();
+            boolean string = item.isJsonPrimitive() && item.getAsJsonPrimitive().isString();
+            reqs[i] = Req.objectFrom(object ? item.toString() : "{}");
+            timeout = Math.max(timeout, reqs[i].getTimeout());
+            try {
+                if (!object && !string) throw new IllegalArgumentException("not a url or an options object");
+                String url = object ? Json.safeString(item.getAsJsonObject(), "url") : item.getAsString();
+                Call call = Connect.to(url, reqs[i]);
+                call.enqueue(getCallback(responses, i, latch, done));
+                calls.add(call);
+            } catch (Exception e) {
+                Logger.t("_httpAll").e(e, "request %d", i);
+                latch.countDown();
+            }
+        }
+        try {
+            latch.await(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (responses) {
+            done.set(true);
+        }
+        for (Call call : calls) call.cancel();
+        JSArray result = ctx.createNewJSArray();
+        for (int i = 0; i < responses.length; i++) result.set(responses[i] == null ? Connect.error(ctx) : Connect.success(ctx, reqs[i], responses[i]), i);
+        return result;
+    }
+
     @Keep
     @JSMethod
     public String joinUrl(String parent, String child) {
@@ -150,26 +223,64 @@ public class Global {
         return result;
     }
 
-    private Callback getCallback(JSFunction complete, Req req) {
+    private Callback getCallback(Response[] responses, int index, CountDownLatch latch, AtomicBoolean done) {
         return new Callback() {
             @Override
             public void onResponse(@NonNull Call call, @NonNull Response res) {
-                submit(() -> complete.call(Connect.success(ctx, req, res)));
+                synchronized (responses) {
+                    if (!done.get()) {
+                        responses[index] = res;
+                        latch.countDown();
+                        return;
+                    }
+                }
+                res.close();
             }
 
             @Override
             public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                submit(() -> complete.call(Connect.error(ctx)));
+                latch.countDown();
             }
         };
     }
 
-    private void schedule(JSFunction func, int delay) {
-        timer.schedule(new TimerTask() {
+    private class Timer implements Runnable {
+
+        private final JSFunction func;
+        private Future<?> future;
+
+        private Timer(JSFunction func) {
+            this.func = func;
+            func.hold();
+        }
+
+        @Override
+        public void run() {
+            if (!timers.remove(this)) return;
+            try {
+                func.call();
+            } finally {
+                func.release();
+            }
+        }
+
+        private void cancel() {
+            if (future != null) future.cancel(false);
+            func.release();
+        }
+    }
+
+    private Callback getCallback(JSFunction complete, Req req) {
+        return new Callback() {
             @Override
-            public void run() {
-                submit(func::call);
+            public void onResponse(@NonNull Call call, @NonNull Response res) {
+                if (!loop.post(() -> complete.call(Connect.success(ctx, req, res)))) res.close();
             }
-        }, delay);
+
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                loop.post(() -> complete.call(Connect.error(ctx)));
+            }
+        };
     }
 }
@@ -0,0 +1,102 @@
+package com.fongmi.quickjs.utils;
+
+import com.fongmi.android.tv.quickjs.BuildConfig;
+import com.github.catvod.utils.Path;
+import com.github.catvod.utils.Util;
+import com.whl.quickjs.wrapper.QuickJSContext;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled QuickJS bytecode, shared in memory across contexts and persisted under Path.js.
+ * Each name keeps one entry in memory and one file on disk, tagged with the hash of the source and engine version it was compiled from,
+ * so a changed source or a QuickJS upgrade just recompiles and overwrites it.
+ */
+public class Bytecode {
+
+    private static final String VERSION = "wrapper-" + BuildConfig.QUICKJS;
+
+    private final ConcurrentHashMap<String, Entry> cache;
+
+    private static class Loader {
+        static volatile Bytecode INSTANCE = new Bytecode();
+    }
+
+    public static Bytecode get() {
+        return Loader.INSTANCE;
+    }
+
+    public Bytecode() {
+        this.cache = new ConcurrentHashMap<>();
+    }
+
+    public byte[] module(QuickJSContext ctx, String name, String source) {
+        return get(ctx, name, source, true);
+    }
+
+    public byte[] script(QuickJSContext ctx, String name, String source) {
+        return get(ctx, name, source, false);
+    }
+
+    private byte[] get(QuickJSContext ctx, String name, String source, boolean module) {
+        String type = module ? "module:" : "script:";
+        String hash = Util.md5(VERSION + type + name + "\n" + source);
+        String key = Util.md5(type + name);
+        Entry entry = cache.get(key);
+        if (entry != null && entry.hash.equals(hash)) return entry.code;
+        File file = Path.js("bytecode" + File.separator + key + ".qbc");
+        byte[] code = read(file, hash);
+        if (code == null) {
+            code = module ? ctx.compileModule(source, name) : ctx.compile(source, name);
+            if (!source.isEmpty()) write(file, hash, code);
+        }
+        cache.put(key, new Entry(hash, code));
+        return code;
+    }
+
+    private byte[] read(File file, String hash) {
+        if (!file.exists()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (!hash.equals(in.readUTF())) return null;
+            byte[] code = new byte[in.readInt()];
+            in.readFully(code);
+            return code;
+        } catch (Exception e) {
+            e.printStackTrace();
+            Path.clear(file);
+            return null;
+        }
+    }
+
+    private void write(File file, String hash, byte[] code) {
+        File temp = new File(file.getParentFile(), file.getName() + "." + Thread.currentThread().getId());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(Path.create(temp))))) {
+            out.writeUTF(hash);
+            out.writeInt(code.length);
+            out.write(code);
+        } catch (Exception e) {
+            e.printStackTrace();
+            Path.clear(temp);
+            return;
+        }
+        if (!temp.renameTo(file)) Path.clear(temp);
+    }
+
+    private static class Entry {
+
+        private final String hash;
+        private final byte[] code;
+
+        private Entry(String hash, byte[] code) {
+            this.hash = hash;
+            this.code = code;
+        }
+    }
+}
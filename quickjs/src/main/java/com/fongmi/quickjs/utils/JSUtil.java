@@ -1,6 +1,7 @@
 package com.fongmi.quickjs.utils;
 
 import com.whl.quickjs.wrapper.JSArray;
+import com.whl.quickjs.wrapper.JSFunction;
 import com.whl.quickjs.wrapper.JSObject;
 import com.whl.quickjs.wrapper.QuickJSContext;
 
@@ -17,12 +18,22 @@ public class JSUtil {
     }
 
     public static JSArray toArray(QuickJSContext ctx, byte[] bytes) {
+        if (bytes == null || bytes.length == 0) return ctx.createNewJSArray();
+        JSFunction function = ctx.getGlobalObject().getJSFunction("_bytes");
+        if (function != null) return toArray(function, bytes);
         JSArray array = ctx.createNewJSArray();
-        if (bytes == null || bytes.length == 0) return array;
         for (int i = 0; i < bytes.length; i++) array.set((int) bytes[i], i);
         return array;
     }
 
+    private static JSArray toArray(JSFunction function, byte[] bytes) {
+        try {
+            return (JSArray) function.call((Object) bytes);
+        } finally {
+            function.release();
+        }
+    }
+
     public static JSObject toObject(QuickJSContext ctx, Map<String, String> map) {
         JSObject obj = ctx.createNewJSObject();
         if (map == null || map.isEmpty()) return obj;
@@ -0,0 +1,52 @@
+package com.fongmi.quickjs.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event loop of one context: timers and async completions are all posted back onto the context's own executor.
+ * Delays are tracked by a single scheduler thread shared by every context, instead of a timer thread each.
+ */
+public class Loop {
+
+    private final ExecutorService executor;
+
+    private static class Scheduler {
+        static final ScheduledThreadPoolExecutor INSTANCE = create();
+
+        private static ScheduledThreadPoolExecutor create() {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "js-timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            return executor;
+        }
+    }
+
+    public Loop(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public boolean post(Runnable runnable) {
+        if (executor.isShutdown()) return false;
+        try {
+            executor.execute(runnable);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the pending schedule, or null if the runnable was posted right away or not at all.
+     */
+    public Future<?> postDelayed(Runnable runnable, long delay) {
+        if (delay <= 0) post(runnable);
+        else if (!executor.isShutdown()) return Scheduler.INSTANCE.schedule(() -> post(runnable), delay, TimeUnit.MILLISECONDS);
+        return null;
+    }
+}
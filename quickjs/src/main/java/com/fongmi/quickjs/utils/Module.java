@@ -5,14 +5,47 @@ import android.net.Uri;
 import com.github.catvod.net.OkHttp;
 import com.github.catvod.utils.Asset;
 import com.github.catvod.utils.Path;
+import com.github.catvod.utils.Util;
+import com.google.common.net.HttpHeaders;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import java9.util.concurrent.CompletableFuture;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Source of JS modules. Remote modules are kept on disk under Path.js with their ETag and Last-Modified,
+ * served from there first and revalidated in the background, while a bounded memory cache sits in front.
+ * Concurrent importers of the same url share one load.
+ */
 public class Module {
 
-    private final ConcurrentHashMap<String, String> cache;
+    private static final int MAGIC = 0x4A534D44;
+    private static final int VERSION = 1;
+    private static final long LIMIT = 8 * 1024 * 1024;
+    private static final long CHECK = TimeUnit.MINUTES.toMillis(10);
+
+    private final Memory cache;
+    private final Set<String> checking;
+    private final ExecutorService executor;
+    private final ConcurrentHashMap<String, CompletableFuture<String>> loading;
     private String currentFlowId;
 
     private static class Loader {
@@ -24,7 +57,14 @@ public class Module {
     }
 
     public Module() {
-        this.cache = new ConcurrentHashMap<>();
+        this.cache = new Memory(LIMIT);
+        this.loading = new ConcurrentHashMap<>();
+        this.checking = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "js-module");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     public void setFlowId(String flowId) {
@@ -33,109 +73,205 @@ public class Module {
 
     public String fetch(String name) {
         long startTime = System.currentTimeMillis();
-        boolean fromCache = cache.containsKey(name);
-
-        if (fromCache) {
-            // 记录缓存命中
-            if (currentFlowId != null && name.startsWith("http")) {
-                try {
-                    android.util.Log.i("VOD_FLOW", String.format("[%s] [FlowID:%s] [JS_MODULE_DOWNLOAD] JavaScript模块下载成功: %s，大小: %d bytes，缓存: 命中",
-                        new java.text.SimpleDateFormat("HH:mm:ss.SSS").format(new java.util.Date()),
-                        currentFlowId, name, cache.get(name).length()));
-                } catch (Exception e) {
-                    // 忽略日志错误
-                }
-            }
-            return cache.get(name);
+        String content = cache.get(name);
+        if (content != null) {
+            if (name.startsWith("http")) log("[JS_MODULE_DOWNLOAD] JavaScript模块下载成功: %s，大小: %d bytes，缓存: 命中", name, content.length());
+            return content;
         }
-
-        String content = null;
         if (name.startsWith("http")) {
-            content = request(name);
-            cache.put(name, content);
+            return single(name);
         } else if (name.startsWith("assets")) {
             content = Asset.read(name);
-            cache.put(name, content);
-            if (currentFlowId != null) {
-                try {
-                    long duration = System.currentTimeMillis() - startTime;
-                    android.util.Log.i("VOD_FLOW", String.format("[%s] [FlowID:%s] [JS_MODULE_LOAD] JavaScript模块加载成功 [%s]，耗时: %dms",
-                        new java.text.SimpleDateFormat("HH:mm:ss.SSS").format(new java.util.Date()),
-                        currentFlowId, name, duration));
-                } catch (Exception e) {
-                    // 忽略日志错误
-                }
-            }
         } else if (name.startsWith("lib/")) {
             content = Asset.read("js/" + name);
-            cache.put(name, content);
-            if (currentFlowId != null) {
-                try {
-                    long duration = System.currentTimeMillis() - startTime;
-                    android.util.Log.i("VOD_FLOW", String.format("[%s] [FlowID:%s] [JS_MODULE_LOAD] JavaScript模块加载成功 [%s]，耗时: %dms",
-                        new java.text.SimpleDateFormat("HH:mm:ss.SSS").format(new java.util.Date()),
-                        currentFlowId, name, duration));
-                } catch (Exception e) {
-                    // 忽略日志错误
-                }
-            }
+        } else {
+            return null;
         }
-
-        return cache.get(name);
+        cache.put(name, content);
+        log("[JS_MODULE_LOAD] JavaScript模块加载成功 [%s]，耗时: %dms", name, System.currentTimeMillis() - startTime);
+        return content;
     }
 
-    private String request(String url) {
-        long startTime = System.currentTimeMillis();
+    private String single(String url) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        CompletableFuture<String> running = loading.putIfAbsent(url, future);
+        if (running != null) return running.join();
+        String content = "";
         try {
-            if (currentFlowId != null) {
-                try {
-                    android.util.Log.i("VOD_FLOW", String.format("[%s] [FlowID:%s] [JS_MODULE_DOWNLOAD] 开始下载JavaScript模块: %s",
-                        new java.text.SimpleDateFormat("HH:mm:ss.SSS").format(new java.util.Date()),
-                        currentFlowId, url));
-                } catch (Exception ex) {
-                    // 忽略日志错误
-                }
-            }
+            content = load(url);
+            return content;
+        } finally {
+            future.complete(content);
+            loading.remove(url, future);
+        }
+    }
 
-            Uri uri = Uri.parse(url);
-            byte[] data = OkHttp.bytes(url);
-            File file = Path.js(uri.getLastPathSegment());
-            boolean cache = !"127.0.0.1".equals(uri.getHost());
-            if (cache) new Thread(() -> Path.write(file, data)).start();
-            String content = new String(data, StandardCharsets.UTF_8);
-
-            if (currentFlowId != null) {
-                try {
-                    android.util.Log.i("VOD_FLOW", String.format("[%s] [FlowID:%s] [JS_MODULE_DOWNLOAD] JavaScript模块下载成功: %s，大小: %d bytes，缓存: 未命中",
-                        new java.text.SimpleDateFormat("HH:mm:ss.SSS").format(new java.util.Date()),
-                        currentFlowId, url, content.length()));
-                } catch (Exception ex) {
-                    // 忽略日志错误
-                }
+    private String load(String url) {
+        Uri uri = Uri.parse(url);
+        boolean persist = !"127.0.0.1".equals(uri.getHost());
+        File file = file(url);
+        Entry entry = persist ? read(file) : null;
+        if (entry == null && persist) entry = migrate(file, uri);
+        if (entry != null) {
+            cache.put(url, entry.content);
+            log("[JS_MODULE_DOWNLOAD] JavaScript模块下载成功: %s，大小: %d bytes，缓存: 磁盘", url, entry.content.length());
+            if (System.currentTimeMillis() - entry.checked > CHECK) revalidate(url, file, entry);
+            return entry.content;
+        }
+        log("[JS_MODULE_DOWNLOAD] 开始下载JavaScript模块: %s", url);
+        entry = request(url, null);
+        if (entry == null) return "";
+        if (persist) write(file, entry);
+        if (!entry.content.isEmpty()) cache.put(url, entry.content);
+        log("[JS_MODULE_DOWNLOAD] JavaScript模块下载成功: %s，大小: %d bytes，缓存: 未命中", url, entry.content.length());
+        return entry.content;
+    }
+
+    /**
+     * Moves a copy saved by the former layout, a bare file named after the last path segment, into the new one.
+     * It carries no validators, so the first revalidation fetches it in full.
+     */
+    private Entry migrate(File file, Uri uri) {
+        String name = uri.getLastPathSegment();
+        File legacy = name == null ? null : Path.js(name);
+        if (legacy == null || !legacy.isFile()) return null;
+        Entry entry = new Entry("", "", 0, Path.read(legacy));
+        if (entry.content.isEmpty()) return null;
+        if (write(file, entry)) Path.clear(legacy);
+        return entry;
+    }
+
+    private void revalidate(String url, File file, Entry old) {
+        if (!checking.add(url)) return;
+        executor.execute(() -> {
+            try {
+                Entry entry = request(url, old);
+                if (entry == null) return;
+                write(file, entry);
+                if (entry != old) cache.put(url, entry.content);
+            } finally {
+                checking.remove(url);
             }
+        });
+    }
 
-            return content;
+    private Entry request(String url, Entry old) {
+        Request.Builder builder = new Request.Builder().url(url);
+        if (old != null && !old.etag.isEmpty()) builder.header(HttpHeaders.IF_NONE_MATCH, old.etag);
+        if (old != null && !old.modified.isEmpty()) builder.header(HttpHeaders.IF_MODIFIED_SINCE, old.modified);
+        try (Response res = OkHttp.client().newCall(builder.build()).execute()) {
+            if (res.code() == 304 && old != null) return old.touch();
+            if (!res.isSuccessful()) throw new IllegalStateException("HTTP " + res.code());
+            String etag = res.header(HttpHeaders.ETAG, "");
+            String modified = res.header(HttpHeaders.LAST_MODIFIED, "");
+            return new Entry(etag, modified, System.currentTimeMillis(), new String(res.body().bytes(), StandardCharsets.UTF_8));
         } catch (Exception e) {
-            if (currentFlowId != null) {
-                try {
-                    android.util.Log.e("VOD_FLOW", String.format("[%s] [FlowID:%s] [JS_MODULE_DOWNLOAD] JavaScript模块下载失败: %s",
-                        new java.text.SimpleDateFormat("HH:mm:ss.SSS").format(new java.util.Date()),
-                        currentFlowId, url), e);
-                } catch (Exception ex) {
-                    // 忽略日志错误
-                }
-            }
-            return cache(url);
+            if (currentFlowId != null) android.util.Log.e("VOD_FLOW", format("[JS_MODULE_DOWNLOAD] JavaScript模块下载失败: %s", url), e);
+            return null;
+        }
+    }
+
+    private File file(String url) {
+        return Path.js("module" + File.separator + Util.md5(url) + ".bin");
+    }
+
+    private Entry read(File file) {
+        if (!file.exists()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            String etag = in.readUTF();
+            String modified = in.readUTF();
+            long checked = in.readLong();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            return new Entry(etag, modified, checked, new String(data, StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            e.printStackTrace();
+            Path.clear(file);
+            return null;
         }
     }
 
-    private String cache(String url) {
+    private boolean write(File file, Entry entry) {
+        File temp = new File(file.getParentFile(), file.getName() + "." + Thread.currentThread().getId());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(Path.create(temp))))) {
+            byte[] data = entry.content.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(entry.etag);
+            out.writeUTF(entry.modified);
+            out.writeLong(entry.checked);
+            out.writeInt(data.length);
+            out.write(data);
+        } catch (Exception e) {
+            e.printStackTrace();
+            Path.clear(temp);
+            return false;
+        }
+        if (temp.renameTo(file)) return true;
+        Path.clear(temp);
+        return false;
+    }
+
+    private void log(String message, Object... args) {
+        if (currentFlowId == null) return;
         try {
-            Uri uri = Uri.parse(url);
-            File file = Path.js(uri.getLastPathSegment());
-            return file.exists() ? Path.read(file) : "";
+            android.util.Log.i("VOD_FLOW", format(message, args));
         } catch (Exception e) {
-            return "";
+            // 忽略日志错误
+        }
+    }
+
+    private String format(String message, Object... args) {
+        return String.format("[%s] [FlowID:%s] ", new java.text.SimpleDateFormat("HH:mm:ss.SSS").format(new java.util.Date()), currentFlowId) + String.format(message, args);
+    }
+
+    private static class Entry {
+
+        private final String etag;
+        private final String modified;
+        private final String content;
+        private long checked;
+
+        private Entry(String etag, String modified, long checked, String content) {
+            this.etag = etag;
+            this.modified = modified;
+            this.checked = checked;
+            this.content = content;
+        }
+
+        private Entry touch() {
+            checked = System.currentTimeMillis();
+            return this;
+        }
+    }
+
+    private static class Memory {
+
+        private final LinkedHashMap<String, String> map;
+        private final long limit;
+        private long size;
+
+        private Memory(long limit) {
+            this.map = new LinkedHashMap<>(16, 0.75f, true);
+            this.limit = limit;
+        }
+
+        private synchronized String get(String key) {
+            return map.get(key);
+        }
+
+        private synchronized void put(String key, String value) {
+            if (value == null) return;
+            String old = map.put(key, value);
+            size += value.length() - (old == null ? 0 : old.length());
+            Iterator<Map.Entry<String, String>> iterator = map.entrySet().iterator();
+            while (size > limit && map.size() > 1 && iterator.hasNext()) {
+                Map.Entry<String, String> eldest = iterator.next();
+                if (eldest.getKey().equals(key)) continue;
+                size -= eldest.getValue().length();
+                iterator.remove();
+            }
         }
     }
 }